@@ -15,11 +15,20 @@
  */
 package org.robovm.gradle;
 
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
+import org.gradle.api.execution.TaskExecutionGraphListener;
+import org.gradle.api.tasks.TaskContainer;
 import org.robovm.compiler.Version;
+import org.robovm.gradle.internal.SigningLookup;
+import org.robovm.gradle.tasks.AbstractRoboVMStageTask;
+import org.robovm.gradle.tasks.AbstractRoboVMTask;
 import org.robovm.gradle.tasks.ActivateLicenseTask;
 import org.robovm.gradle.tasks.ArchiveTask;
 import org.robovm.gradle.tasks.ConsoleTask;
@@ -28,6 +37,12 @@ import org.robovm.gradle.tasks.IOSDeviceTask;
 import org.robovm.gradle.tasks.IPadSimulatorTask;
 import org.robovm.gradle.tasks.IPhoneSimulatorTask;
 import org.robovm.gradle.tasks.InstallTask;
+import org.robovm.gradle.tasks.RoboVMCleanCacheTask;
+import org.robovm.gradle.tasks.RoboVMCompileTask;
+import org.robovm.gradle.tasks.RoboVMLinkTask;
+import org.robovm.gradle.tasks.RoboVMPrefetchTask;
+import org.robovm.gradle.tasks.RoboVMVariantTask;
+import org.robovm.gradle.tasks.RoboVMVariantsTask;
 import org.robovm.gradle.tasks.TVOSDeviceTask;
 import org.robovm.gradle.tasks.TVOSSimulatorTask;
 
@@ -38,23 +53,108 @@ import org.robovm.gradle.tasks.TVOSSimulatorTask;
  */
 public class RoboVMPlugin implements Plugin<Project> {
 
+    private static final String COMPILE_PREFIX = "robovmCompile";
+    private static final String LINK_PREFIX = "robovmLink";
+
     public static String getRoboVMVersion() {
         return Version.getVersion();
     }
 
     @Override
-    public void apply(Project project) {
-        project.getExtensions().create(RoboVMPluginExtension.NAME, RoboVMPluginExtension.class, project);
-        project.task(Collections.singletonMap("type", IPhoneSimulatorTask.class), "launchIPhoneSimulator");
-        project.task(Collections.singletonMap("type", IPadSimulatorTask.class), "launchIPadSimulator");
-        project.task(Collections.singletonMap("type", IOSDeviceTask.class), "launchIOSDevice");
-        project.task(Collections.singletonMap("type", TVOSSimulatorTask.class), "launchTVOSSimulator");
-        project.task(Collections.singletonMap("type", TVOSDeviceTask.class), "launchTVOSDevice");
-        project.task(Collections.singletonMap("type", ConsoleTask.class), "launchConsole");
-        project.task(Collections.singletonMap("type", ArchiveTask.class), "createIPA");
-        project.task(Collections.singletonMap("type", ArchiveTask.class), "robovmArchive");
-        project.task(Collections.singletonMap("type", InstallTask.class), "robovmInstall");
-        project.task(Collections.singletonMap("type", ActivateLicenseTask.class), "activateLicense");
-        project.task(Collections.singletonMap("type", DeactivateLicenseTask.class), "deactivateLicense");
+    public void apply(final Project project) {
+        final RoboVMPluginExtension extension = project.getExtensions().create(RoboVMPluginExtension.NAME,
+                RoboVMPluginExtension.class, project);
+        final TaskContainer tasks = project.getTasks();
+        final Map<String, String> stageTargets = new HashMap<>();
+
+        addStages(stageTargets, "IPhoneSimulator", tasks.create("launchIPhoneSimulator", IPhoneSimulatorTask.class));
+        addStages(stageTargets, "IPadSimulator", tasks.create("launchIPadSimulator", IPadSimulatorTask.class));
+        addStages(stageTargets, "IOSDevice", tasks.create("launchIOSDevice", IOSDeviceTask.class));
+        addStages(stageTargets, "TVOSSimulator", tasks.create("launchTVOSSimulator", TVOSSimulatorTask.class));
+        addStages(stageTargets, "TVOSDevice", tasks.create("launchTVOSDevice", TVOSDeviceTask.class));
+        addStages(stageTargets, "Console", tasks.create("launchConsole", ConsoleTask.class));
+        addStages(stageTargets, "CreateIPA", tasks.create("createIPA", ArchiveTask.class));
+        addStages(stageTargets, "Archive", tasks.create("robovmArchive", ArchiveTask.class));
+        addStages(stageTargets, "Install", tasks.create("robovmInstall", InstallTask.class));
+        tasks.create("activateLicense", ActivateLicenseTask.class);
+        tasks.create("deactivateLicense", DeactivateLicenseTask.class);
+        tasks.create("robovmCleanCache", RoboVMCleanCacheTask.class);
+        final RoboVMPrefetchTask prefetchTask = tasks.create("robovmPrefetch", RoboVMPrefetchTask.class);
+
+        final RoboVMVariantsTask variantsTask = tasks.create("robovmVariants", RoboVMVariantsTask.class);
+        extension.getVariants().all(new Action<RoboVMVariant>() {
+            @Override
+            public void execute(RoboVMVariant variant) {
+                String suffix = Character.toUpperCase(variant.getName().charAt(0))
+                        + variant.getName().substring(1) + "Variant";
+                RoboVMVariantTask variantTask = tasks.create("robovm" + suffix, RoboVMVariantTask.class);
+                variantTask.setVariant(variant);
+                addStages(stageTargets, suffix, variantTask);
+                variantsTask.addVariant(variantTask);
+            }
+        });
+
+        // Resolve and unpack the distribution and look up the signing
+        // identity and provisioning profile while the Java sources compile
+        // rather than when a RoboVM task needs them
+        project.getGradle().getTaskGraph().addTaskExecutionGraphListener(new TaskExecutionGraphListener() {
+            @Override
+            public void graphPopulated(TaskExecutionGraph graph) {
+                boolean prefetch = false;
+                boolean signing = false;
+                for (Task task : graph.getAllTasks()) {
+                    if (task.getProject() == project) {
+                        prefetch |= task instanceof AbstractRoboVMTask || task instanceof RoboVMPrefetchTask;
+                        signing |= task instanceof AbstractRoboVMTask;
+                    }
+                }
+                if (prefetch) {
+                    prefetchTask.getDistribution().start();
+                }
+                if (signing && !extension.isIosSkipSigning()) {
+                    SigningLookup.get(project).prefetch(extension.getIosSignIdentity(),
+                            extension.getIosProvisioningProfile());
+                }
+            }
+        });
+
+        // The compile and link tasks are only created once something asks
+        // for them, so builds which don't touch RoboVM don't pay for them
+        tasks.addRule("Pattern: " + COMPILE_PREFIX + "<Target>, " + LINK_PREFIX
+                + "<Target>: Compiles or links the app for a RoboVM task.", new Action<String>() {
+            @Override
+            public void execute(String taskName) {
+                boolean link = taskName.startsWith(LINK_PREFIX);
+                String suffix;
+                if (link) {
+                    suffix = taskName.substring(LINK_PREFIX.length());
+                } else if (taskName.startsWith(COMPILE_PREFIX)) {
+                    suffix = taskName.substring(COMPILE_PREFIX.length());
+                } else {
+                    return;
+                }
+                String targetTaskName = stageTargets.get(suffix);
+                if (targetTaskName == null) {
+                    return;
+                }
+                AbstractRoboVMStageTask stageTask = link
+                        ? tasks.create(taskName, RoboVMLinkTask.class)
+                        : tasks.create(taskName, RoboVMCompileTask.class);
+                stageTask.setTargetTask((AbstractRoboVMTask) tasks.getByName(targetTaskName));
+                if (link) {
+                    stageTask.dependsOn(COMPILE_PREFIX + suffix);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the specified task depend on the {@code robovmLink<suffix>}
+     * task, which depends on the {@code robovmCompile<suffix>} task. Both
+     * build the app for the specified task.
+     */
+    private static void addStages(Map<String, String> stageTargets, String suffix, Task task) {
+        stageTargets.put(suffix, task.getName());
+        task.dependsOn(LINK_PREFIX + suffix);
     }
 }
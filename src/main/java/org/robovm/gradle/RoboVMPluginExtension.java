@@ -15,6 +15,14 @@
  */
 package org.robovm.gradle;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import groovy.lang.Closure;
+
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
 
 /**
@@ -43,17 +51,77 @@ public class RoboVMPluginExtension {
     private String archs;
     private String installDir;    
     private String cacheDir;
+    private String maxCacheSize;
+    private String objectCacheUrl;
+    private boolean objectCachePush = false;
+    private int maxCacheAge = -1;
     private String keychainPassword;
     private String keychainPasswordFile;
+    private boolean cleanTmp = false;
+    private boolean parallelArchs = false;
+    private int archThreads = -1;
+    private List<String> distRepositories;
+    private String distMirror;
+    private boolean offline = false;
+    private String logFile;
+    private boolean daemon = false;
+    private String daemonMaxHeap;
+    private int maxParallelCompilations = -1;
+    private boolean fingerprintClasspath = false;
+    private boolean buildCache = false;
+    private String buildCacheDir;
+    private String buildCacheUrl;
+    private boolean buildCachePush = false;
+    private boolean watch = false;
+    private final NamedDomainObjectContainer<RoboVMVariant> variants;
+    private final Map<String, String> propertyValues = new HashMap<>();
 
     public RoboVMPluginExtension(Project project) {
         this.project = project;
+        this.variants = project.container(RoboVMVariant.class);
     }
 
     public Project getProject() {
         return project;
     }
 
+    /**
+     * Returns the value of the specified project property or {@code null}
+     * if it isn't set. Once the project has been evaluated its properties
+     * don't change any more, so from then on each is looked up once and
+     * then remembered. Until then build scripts may still add properties,
+     * e.g. through {@code ext}, and every call looks the property up.
+     * Looking up a single property is much cheaper than building the map
+     * returned by {@link Project#getProperties()}.
+     */
+    private String property(String name) {
+        synchronized (propertyValues) {
+            if (propertyValues.containsKey(name)) {
+                return propertyValues.get(name);
+            }
+            String value = project.hasProperty(name) ? String.valueOf(project.property(name)) : null;
+            if (project.getState().getExecuted()) {
+                propertyValues.put(name, value);
+            }
+            return value;
+        }
+    }
+
+    private String stringProperty(String name, String defaultValue) {
+        String value = property(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private boolean booleanProperty(String name, boolean defaultValue) {
+        String value = property(name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private int intProperty(String name, int defaultValue) {
+        String value = property(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
     public String getPropertiesFile() {
         return propertiesFile;
     }
@@ -71,9 +139,7 @@ public class RoboVMPluginExtension {
     }
 
     public String getIosSignIdentity() {
-        return project.hasProperty("robovm.iosSignIdentity") 
-                ? project.getProperties().get("robovm.iosSignIdentity").toString() 
-                : iosSignIdentity;
+        return stringProperty("robovm.iosSignIdentity", iosSignIdentity);
     }
 
     public void setIosSignIdentity(String iosSignIdentity) {
@@ -81,9 +147,7 @@ public class RoboVMPluginExtension {
     }
 
     public String getIosProvisioningProfile() {
-        return project.hasProperty("robovm.iosProvisioningProfile") 
-                ? project.getProperties().get("robovm.iosProvisioningProfile").toString() 
-                : iosProvisioningProfile;
+        return stringProperty("robovm.iosProvisioningProfile", iosProvisioningProfile);
     }
 
     public void setIosProvisioningProfile(String iosProvisioningProfile) {
@@ -91,9 +155,7 @@ public class RoboVMPluginExtension {
     }
 
     public String getIosSimulatorSdk() {
-        return project.hasProperty("robovm.iosSimulatorSdk") 
-                ? project.getProperties().get("robovm.iosSimulatorSdk").toString() 
-                : iosSimulatorSdk;
+        return stringProperty("robovm.iosSimulatorSdk", iosSimulatorSdk);
     }
 
     public void setIosSimulatorSdk(String iosSimulatorSdk) {
@@ -117,9 +179,7 @@ public class RoboVMPluginExtension {
     }
 
     public boolean isIosSkipSigning() {
-        return project.hasProperty("robovm.iosSkipSigning") 
-                ? Boolean.parseBoolean(project.getProperties().get("robovm.iosSkipSigning").toString())
-                : iosSkipSigning;
+        return booleanProperty("robovm.iosSkipSigning", iosSkipSigning);
     }
 
     public void setIosSkipSigning(boolean iosSkipSigning) {
@@ -127,7 +187,7 @@ public class RoboVMPluginExtension {
     }
 
     public String getOs() {
-        return project.hasProperty("robovm.os") ? project.getProperties().get("robovm.os").toString() : os;
+        return stringProperty("robovm.os", os);
     }
 
     public void setOs(String os) {
@@ -135,7 +195,7 @@ public class RoboVMPluginExtension {
     }
 
     public String getArch() {
-        return project.hasProperty("robovm.arch") ? project.getProperties().get("robovm.arch").toString() : arch;
+        return stringProperty("robovm.arch", arch);
     }
 
     public void setArch(String arch) {
@@ -143,9 +203,7 @@ public class RoboVMPluginExtension {
     }
     
     public boolean isDebug() {
-        return project.hasProperty("robovm.debug") 
-                ? Boolean.parseBoolean(project.getProperties().get("robovm.debug").toString()) 
-                : debug;
+        return booleanProperty("robovm.debug", debug);
     }
     
     public void setDebug(boolean debug) {
@@ -153,9 +211,7 @@ public class RoboVMPluginExtension {
     }
 
     public boolean isSkipLaunch() {
-        return project.hasProperty("robovm.skipLaunch")
-                ? Boolean.parseBoolean(project.getProperties().get("robovm.skipLaunch").toString())
-                : skipLaunch;
+        return booleanProperty("robovm.skipLaunch", skipLaunch);
     }
 
     public void setSkipLaunch(boolean skipLaunch) {
@@ -163,9 +219,7 @@ public class RoboVMPluginExtension {
     }
     
     public boolean isSkipLinking() {
-        return project.hasProperty("robovm.skipLinking")
-                ? Boolean.parseBoolean(project.getProperties().get("robovm.skipLinking").toString())
-                : skipLinking;
+        return booleanProperty("robovm.skipLinking", skipLinking);
     }
 
     public void setSkipLinking(boolean skipLinking) {
@@ -173,9 +227,7 @@ public class RoboVMPluginExtension {
     }
 
     public boolean isEnableBitcode() {
-        return project.hasProperty("robovm.enableBitcode")
-                ? Boolean.parseBoolean(project.getProperties().get("robovm.enableBitcode").toString())
-                : enableBitcode;
+        return booleanProperty("robovm.enableBitcode", enableBitcode);
     }
 
     public void setEnableBitcode(boolean enableBitcode) {
@@ -183,9 +235,7 @@ public class RoboVMPluginExtension {
     }
     
     public int getDebugPort() {
-        return project.hasProperty("robovm.debugPort") 
-                ? Integer.parseInt(project.getProperties().get("robovm.debugPort").toString()) 
-                : debugPort;
+        return intProperty("robovm.debugPort", debugPort);
     }
     
     public void setDebugPort(int debugPort) {
@@ -193,14 +243,11 @@ public class RoboVMPluginExtension {
     }
     
     public String getArchs() {
-        if (project.hasProperty("robovm.ipaArchs")) {
+        if (property("robovm.ipaArchs") != null) {
             // Kept for backwards compatibility
-            return project.getProperties().get("robovm.ipaArchs").toString();
+            return property("robovm.ipaArchs");
         }
-        if (project.hasProperty("robovm.archs")) {
-            return project.getProperties().get("robovm.archs").toString();
-        }
-        return archs;
+        return stringProperty("robovm.archs", archs);
     }
     
     public void setArchs(String ipaArchs) {
@@ -208,27 +255,99 @@ public class RoboVMPluginExtension {
     }
 
     public String getInstallDir() {
-        return project.hasProperty("robovm.installDir") ? project.getProperties().get("robovm.installDir").toString() : installDir;
+        return stringProperty("robovm.installDir", installDir);
     }
 
     public void setInstallDir(String installDir) {
         this.installDir = installDir;
     }
     
+    /**
+     * Returns the simulator device name given by the
+     * {@code robovm.device.name} property.
+     */
+    public String getDeviceName() {
+        return property("robovm.device.name");
+    }
+
+    /**
+     * Returns the simulator SDK version given by the
+     * {@code robovm.sdk.version} property.
+     */
+    public String getSdkVersion() {
+        return property("robovm.sdk.version");
+    }
+
     public String getLicenseKey() {
-        return project.hasProperty("robovm.licenseKey") ? project.getProperties().get("robovm.licenseKey").toString() : null;
+        return stringProperty("robovm.licenseKey", null);
     }
     
-    public void setCachedir(String cacheDir) {
+    public void setCacheDir(String cacheDir) {
         this.cacheDir = cacheDir;
     }
+
+    /**
+     * @deprecated Use {@link #setCacheDir(String)}.
+     */
+    @Deprecated
+    public void setCachedir(String cacheDir) {
+        setCacheDir(cacheDir);
+    }
     
     public String getCacheDir() {
-        return project.hasProperty("robovm.cacheDir") ? project.getProperties().get("robovm.cacheDir").toString() : null;
+        return stringProperty("robovm.cacheDir", cacheDir);
+    }
+
+    /**
+     * Returns the size, e.g. {@code 10g}, the compiler's cache directory is
+     * trimmed to after builds or {@code null} for no limit.
+     */
+    public String getMaxCacheSize() {
+        return stringProperty("robovm.maxCacheSize", maxCacheSize);
+    }
+
+    public void setMaxCacheSize(String maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Returns the number of days after which unused entries are evicted
+     * from the compiler's cache directory or {@code -1} for no limit.
+     */
+    public int getMaxCacheAge() {
+        return intProperty("robovm.maxCacheAge", maxCacheAge);
+    }
+
+    public void setMaxCacheAge(int maxCacheAge) {
+        this.maxCacheAge = maxCacheAge;
+    }
+
+    /**
+     * Returns the URL of the HTTP server the entries of the compiler's cache
+     * directory are shared through or {@code null} if they aren't shared.
+     */
+    public String getObjectCacheUrl() {
+        return stringProperty("robovm.objectCacheUrl", objectCacheUrl);
+    }
+
+    public void setObjectCacheUrl(String objectCacheUrl) {
+        this.objectCacheUrl = objectCacheUrl;
+    }
+
+    /**
+     * Returns whether entries compiled locally should be uploaded to
+     * {@link #getObjectCacheUrl()}.
+     */
+    public boolean isObjectCachePush() {
+        return booleanProperty("robovm.objectCachePush", objectCachePush);
+    }
+
+    public void setObjectCachePush(boolean objectCachePush) {
+        this.objectCachePush = objectCachePush;
     }
     
     public String getKeychainPassword() {
-        return project.hasProperty("robovm.keychainPassword") ? project.getProperties().get("robovm.keychainPassword").toString() : keychainPassword;
+        return stringProperty("robovm.keychainPassword", keychainPassword);
     }
     
     public void setKeychainPassword(String keychainPassword) {
@@ -236,10 +355,193 @@ public class RoboVMPluginExtension {
     }
     
     public String getKeychainPasswordFile() {
-        return project.hasProperty("robovm.keychainPasswordFile") ? project.getProperties().get("robovm.keychainPasswordFile").toString() : keychainPasswordFile;
+        return stringProperty("robovm.keychainPasswordFile", keychainPasswordFile);
     }
     
     public void setKeychainPasswordFile(String keychainPasswordFile) {
         this.keychainPasswordFile = keychainPasswordFile;
     }
+
+    public boolean isCleanTmp() {
+        return booleanProperty("robovm.cleanTmp", cleanTmp);
+    }
+
+    public void setCleanTmp(boolean cleanTmp) {
+        this.cleanTmp = cleanTmp;
+    }
+
+    public boolean isParallelArchs() {
+        return booleanProperty("robovm.parallelArchs", parallelArchs);
+    }
+
+    public void setParallelArchs(boolean parallelArchs) {
+        this.parallelArchs = parallelArchs;
+    }
+
+    public int getArchThreads() {
+        return intProperty("robovm.archThreads", archThreads);
+    }
+
+    public void setArchThreads(int archThreads) {
+        this.archThreads = archThreads;
+    }
+
+    /**
+     * Returns the URLs of the Maven repositories the RoboVM distribution is
+     * resolved from or {@code null} to use Maven Central and the Sonatype
+     * snapshots repository. The {@code robovm.distRepositories} project
+     * property takes a comma separated list of URLs.
+     */
+    public List<String> getDistRepositories() {
+        if (property("robovm.distRepositories") != null) {
+            List<String> urls = new ArrayList<>();
+            for (String s : property("robovm.distRepositories").split(",")) {
+                if (s.trim().length() > 0) {
+                    urls.add(s.trim());
+                }
+            }
+            return urls;
+        }
+        return distRepositories;
+    }
+
+    public void setDistRepositories(List<String> distRepositories) {
+        this.distRepositories = distRepositories;
+    }
+
+    public String getDistMirror() {
+        return stringProperty("robovm.distMirror", distMirror);
+    }
+
+    public void setDistMirror(String distMirror) {
+        this.distMirror = distMirror;
+    }
+
+    /**
+     * Returns {@code true} if Gradle runs with {@code --offline} or offline
+     * mode has been enabled for RoboVM explicitly.
+     */
+    public boolean isOffline() {
+        if (project.getGradle().getStartParameter().isOffline()) {
+            return true;
+        }
+        return booleanProperty("robovm.offline", offline);
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Returns the file RoboVM tasks append machine-readable log events to,
+     * one JSON object per line, or {@code null} if no such log should be
+     * written.
+     */
+    public String getLogFile() {
+        return stringProperty("robovm.logFile", logFile);
+    }
+
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    public boolean isDaemon() {
+        return booleanProperty("robovm.daemon", daemon);
+    }
+
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    public String getDaemonMaxHeap() {
+        return stringProperty("robovm.daemonMaxHeap", daemonMaxHeap);
+    }
+
+    public void setDaemonMaxHeap(String daemonMaxHeap) {
+        this.daemonMaxHeap = daemonMaxHeap;
+    }
+
+    /**
+     * Returns the maximum number of RoboVM compilations which may run at the
+     * same time in a build. Defaults to the number of available processors.
+     */
+    public int getMaxParallelCompilations() {
+        int max = intProperty("robovm.maxParallelCompilations", maxParallelCompilations);
+        return max > 0 ? max : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setMaxParallelCompilations(int maxParallelCompilations) {
+        this.maxParallelCompilations = maxParallelCompilations;
+    }
+
+    public boolean isFingerprintClasspath() {
+        return booleanProperty("robovm.fingerprintClasspath", fingerprintClasspath);
+    }
+
+    public void setFingerprintClasspath(boolean fingerprintClasspath) {
+        this.fingerprintClasspath = fingerprintClasspath;
+    }
+
+    /**
+     * Returns whether linked executables should be stored in and restored
+     * from the RoboVM build cache.
+     */
+    public boolean isBuildCache() {
+        return booleanProperty("robovm.buildCache", buildCache);
+    }
+
+    public void setBuildCache(boolean buildCache) {
+        this.buildCache = buildCache;
+    }
+
+    public String getBuildCacheDir() {
+        return stringProperty("robovm.buildCacheDir", buildCacheDir);
+    }
+
+    public void setBuildCacheDir(String buildCacheDir) {
+        this.buildCacheDir = buildCacheDir;
+    }
+
+    public String getBuildCacheUrl() {
+        return stringProperty("robovm.buildCacheUrl", buildCacheUrl);
+    }
+
+    public void setBuildCacheUrl(String buildCacheUrl) {
+        this.buildCacheUrl = buildCacheUrl;
+    }
+
+    /**
+     * Returns whether executables built locally should be uploaded to the
+     * remote build cache at {@link #getBuildCacheUrl()}.
+     */
+    public boolean isBuildCachePush() {
+        return booleanProperty("robovm.buildCachePush", buildCachePush);
+    }
+
+    public void setBuildCachePush(boolean buildCachePush) {
+        this.buildCachePush = buildCachePush;
+    }
+
+    /**
+     * Returns whether {@code launchConsole} should keep running and
+     * relaunch the app whenever its classes or resources change.
+     */
+    public boolean isWatch() {
+        return booleanProperty("robovm.watch", watch);
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * Returns the variants to build in addition to the default tasks.
+     */
+    public NamedDomainObjectContainer<RoboVMVariant> getVariants() {
+        return variants;
+    }
+
+    public void variants(Closure<?> closure) {
+        variants.configure(closure);
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle;
+
+/**
+ * A named OS, arch and target type combination declared in the
+ * {@code variants} block of the {@code robovm} extension. Each variant gets
+ * tasks of its own which build it, see {@link RoboVMPlugin}. Settings which
+ * aren't set fall back to the {@code robovm} extension or the RoboVM config
+ * files.
+ */
+public class RoboVMVariant {
+
+    private final String name;
+    private String os;
+    private String arch;
+    private String archs;
+    private String targetType;
+    private String propertiesFile;
+    private String configFile;
+    private String installDir;
+    private Boolean enableBitcode;
+    private boolean archive = false;
+
+    public RoboVMVariant(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOs() {
+        return os;
+    }
+
+    public void setOs(String os) {
+        this.os = os;
+    }
+
+    public String getArch() {
+        return arch;
+    }
+
+    public void setArch(String arch) {
+        this.arch = arch;
+    }
+
+    /**
+     * Returns the archs to build a fat binary for, separated by {@code ':'}.
+     * Takes precedence over {@link #getArch()}.
+     */
+    public String getArchs() {
+        return archs;
+    }
+
+    public void setArchs(String archs) {
+        this.archs = archs;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public void setTargetType(String targetType) {
+        this.targetType = targetType;
+    }
+
+    public String getPropertiesFile() {
+        return propertiesFile;
+    }
+
+    public void setPropertiesFile(String propertiesFile) {
+        this.propertiesFile = propertiesFile;
+    }
+
+    public String getConfigFile() {
+        return configFile;
+    }
+
+    public void setConfigFile(String configFile) {
+        this.configFile = configFile;
+    }
+
+    public String getInstallDir() {
+        return installDir;
+    }
+
+    public void setInstallDir(String installDir) {
+        this.installDir = installDir;
+    }
+
+    public Boolean getEnableBitcode() {
+        return enableBitcode;
+    }
+
+    public void setEnableBitcode(Boolean enableBitcode) {
+        this.enableBitcode = enableBitcode;
+    }
+
+    /**
+     * Returns whether the variant is archived for distribution rather than
+     * installed.
+     */
+    public boolean isArchive() {
+        return archive;
+    }
+
+    public void setArchive(boolean archive) {
+        this.archive = archive;
+    }
+}
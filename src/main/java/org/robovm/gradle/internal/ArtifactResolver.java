@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemSession;
+import org.apache.maven.repository.internal.MavenServiceLocator;
+import org.apache.maven.wagon.Wagon;
+import org.apache.maven.wagon.providers.http.HttpWagon;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.sonatype.aether.RepositorySystem;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.connector.wagon.WagonProvider;
+import org.sonatype.aether.connector.wagon.WagonRepositoryConnectorFactory;
+import org.sonatype.aether.repository.LocalRepository;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.resolution.ArtifactRequest;
+import org.sonatype.aether.resolution.ArtifactResolutionException;
+import org.sonatype.aether.resolution.ArtifactResult;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.repository.DefaultMirrorSelector;
+
+/**
+ * Resolves Maven artifacts such as the RoboVM distribution. One instance is
+ * shared by all RoboVM tasks of a build. The Aether repository system is
+ * only set up the first time an artifact is resolved and resolved artifacts
+ * are remembered for the rest of the build.
+ * <p>
+ * Resolved artifacts are also recorded in an on-disk index. Release
+ * artifacts found in the index are used without asking Aether at all.
+ * SNAPSHOT artifacts are looked up remotely at most once per
+ * {@link #SNAPSHOT_UPDATE_INTERVAL}, like Maven's default daily update
+ * policy, and never when offline. Index entries are keyed by the artifact
+ * together with the repositories and mirror it was resolved from. The index
+ * is updated under a file lock and replaced atomically so concurrent builds
+ * don't lose each other's entries.
+ */
+public class ArtifactResolver {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.artifactResolver";
+    private static final long SNAPSHOT_UPDATE_INTERVAL = 24L * 60 * 60 * 1000;
+    private static final Object INDEX_LOCK = new Object();
+
+    /**
+     * The repositories used when no repositories have been configured.
+     */
+    public static final List<String> DEFAULT_REPOSITORIES = Arrays.asList(
+            "http://repo1.maven.org/maven2/",
+            "https://oss.sonatype.org/content/repositories/snapshots/");
+
+    private final ConcurrentMap<String, Artifact> resolved = new ConcurrentHashMap<>();
+    private final Map<String, RepositorySystemSession> sessions = new HashMap<>();
+    private final File indexFile;
+    private RepositorySystem repositorySystem;
+
+    ArtifactResolver(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Returns the {@link ArtifactResolver} of the build the specified
+     * project belongs to. The instance is stored on the root project so it
+     * lives exactly as long as the build.
+     */
+    public static ArtifactResolver get(Project project) {
+        Project rootProject = project.getRootProject();
+        File indexFile = new RoboVMCaches(project.getGradle().getGradleUserHomeDir()).getArtifactIndexFile();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME)) {
+                Object resolver = ext.get(EXTRA_PROPERTY_NAME);
+                if (resolver instanceof ArtifactResolver) {
+                    return (ArtifactResolver) resolver;
+                }
+                // Loaded by another buildscript class loader. Don't share.
+                return new ArtifactResolver(indexFile);
+            }
+            ArtifactResolver resolver = new ArtifactResolver(indexFile);
+            ext.set(EXTRA_PROPERTY_NAME, resolver);
+            return resolver;
+        }
+    }
+
+    /**
+     * Resolves the specified artifact.
+     *
+     * @param artifactLocator the artifact coordinates.
+     * @param repositories the URLs of the repositories to search or
+     *            {@code null} to use the {@link #DEFAULT_REPOSITORIES}.
+     * @param mirror the URL of a repository which mirrors all other
+     *            repositories or {@code null}.
+     * @param offline whether remote repositories may be accessed.
+     */
+    public Artifact resolveArtifact(String artifactLocator, List<String> repositories, String mirror,
+            boolean offline, Logger logger) throws GradleException {
+
+        if (repositories == null || repositories.isEmpty()) {
+            repositories = DEFAULT_REPOSITORIES;
+        }
+        String indexKey = artifactLocator + "|" + repositories + "|" + mirror;
+        String key = indexKey + "|" + offline;
+        Artifact artifact = resolved.get(key);
+        if (artifact != null) {
+            logger.debug("Artifact " + artifactLocator + " already resolved to " + artifact.getFile());
+            return artifact;
+        }
+
+        synchronized (this) {
+            artifact = resolved.get(key);
+            if (artifact == null) {
+                artifact = findInIndex(indexKey, artifactLocator, offline, logger);
+            }
+            if (artifact == null) {
+                artifact = doResolveArtifact(artifactLocator, repositories, mirror, offline, logger);
+                addToIndex(indexKey, artifact.getFile(), logger);
+            }
+            resolved.put(key, artifact);
+            return artifact;
+        }
+    }
+
+    private Artifact doResolveArtifact(String artifactLocator, List<String> repositories, String mirror,
+            boolean offline, Logger logger) throws GradleException {
+
+        List<RemoteRepository> remoteRepositories = createRemoteRepositories(repositories);
+        ArtifactRequest request = new ArtifactRequest();
+        DefaultArtifact artifact = new DefaultArtifact(artifactLocator);
+        request.setArtifact(artifact);
+        request.setRepositories(remoteRepositories);
+
+        logger.debug("Resolving artifact " + artifact + " from " + remoteRepositories
+                + (mirror != null ? " via mirror " + mirror : "") + (offline ? " (offline)" : ""));
+
+        ArtifactResult result;
+
+        try {
+            result = getRepositorySystem().resolveArtifact(getSession(mirror, offline), request);
+        } catch (ArtifactResolutionException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+
+        logger.debug(
+                "Resolved artifact " + artifact + " to " + result.getArtifact().getFile() + " from "
+                        + result.getRepository());
+
+        return result.getArtifact();
+    }
+
+    private Artifact findInIndex(String indexKey, String artifactLocator, boolean offline, Logger logger) {
+        String value = loadIndex().getProperty(indexKey);
+        if (value == null) {
+            return null;
+        }
+        int sep = value.lastIndexOf('|');
+        if (sep == -1) {
+            return null;
+        }
+        File file = new File(value.substring(0, sep));
+        long resolvedAt;
+        try {
+            resolvedAt = Long.parseLong(value.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Artifact artifact = new DefaultArtifact(artifactLocator);
+        if (artifact.isSnapshot() && !offline
+                && System.currentTimeMillis() - resolvedAt > SNAPSHOT_UPDATE_INTERVAL) {
+            logger.debug("Index entry for " + artifactLocator + " is due for an update check");
+            return null;
+        }
+
+        logger.debug("Resolved artifact " + artifactLocator + " to " + file + " using index " + indexFile);
+        return artifact.setFile(file);
+    }
+
+    private Properties loadIndex() {
+        Properties index = new Properties();
+        if (indexFile.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(indexFile);
+                index.load(in);
+            } catch (IOException e) {
+                // Treat an unreadable index as empty
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return index;
+    }
+
+    private void addToIndex(String indexKey, File file, Logger logger) {
+        indexFile.getParentFile().mkdirs();
+        File lockFile = new File(indexFile.getParentFile(), indexFile.getName() + ".lock");
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp-" + UUID.randomUUID());
+        // Other builds in this JVM use other instances, so a static monitor
+        // is needed on top of the file lock which is held per process.
+        synchronized (INDEX_LOCK) {
+            try (FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+                    FileLock lock = channel.lock()) {
+
+                Properties index = loadIndex();
+                index.setProperty(indexKey, file.getAbsolutePath() + "|" + System.currentTimeMillis());
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    index.store(out, "Resolved RoboVM artifacts");
+                }
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.debug("Failed to update artifact index " + indexFile, e);
+            } finally {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private RepositorySystem getRepositorySystem() {
+        if (repositorySystem == null) {
+            MavenServiceLocator locator = new MavenServiceLocator();
+            locator.addService(RepositoryConnectorFactory.class, WagonRepositoryConnectorFactory.class);
+            locator.setService(WagonProvider.class, ManualWagonProvider.class);
+
+            repositorySystem = locator.getService(RepositorySystem.class);
+        }
+        return repositorySystem;
+    }
+
+    private RepositorySystemSession getSession(String mirror, boolean offline) {
+        String key = mirror + "|" + offline;
+        RepositorySystemSession session = sessions.get(key);
+        if (session == null) {
+            LocalRepository localRepository = new LocalRepository(System.getProperty("user.home") + "/.m2/repository");
+            MavenRepositorySystemSession s = new MavenRepositorySystemSession();
+            s.setLocalRepositoryManager(getRepositorySystem().newLocalRepositoryManager(localRepository));
+            s.setOffline(offline);
+            if (mirror != null) {
+                s.setMirrorSelector(new DefaultMirrorSelector()
+                        .add("robovm-mirror", mirror, "default", false, "*", "*"));
+            }
+            session = s;
+            sessions.put(key, session);
+        }
+        return session;
+    }
+
+    private static List<RemoteRepository> createRemoteRepositories(List<String> urls) {
+        List<RemoteRepository> repositories = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            String id;
+            if (url.equals(DEFAULT_REPOSITORIES.get(0))) {
+                id = "maven-central";
+            } else if (url.equals(DEFAULT_REPOSITORIES.get(1))) {
+                id = "oss.sonatype.org-snapshots";
+            } else {
+                id = "robovm-repository-" + i;
+            }
+            repositories.add(new RemoteRepository(id, "default", url));
+        }
+
+        return repositories;
+    }
+
+    public static class ManualWagonProvider implements WagonProvider {
+
+        @Override
+        public Wagon lookup(String roleHint) throws Exception {
+            if ("http".equals(roleHint) || "https".equals(roleHint)) {
+                return new HttpWagon();
+            }
+
+            return null;
+        }
+
+        @Override
+        public void release(Wagon wagon) {
+            // noop
+        }
+    }
+}
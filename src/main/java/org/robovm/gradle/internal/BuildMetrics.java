@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Records the wall clock time spent in the phases of a RoboVM task, e.g.
+ * resolving and unpacking the distribution, compiling and launching, and
+ * writes them as JSON and CSV reports. Phases may nest, e.g.
+ * {@code configure} includes {@code unpack}. Time recorded several times
+ * for the same phase is added up.
+ */
+public class BuildMetrics {
+
+    private final String taskName;
+    private final long startTime = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private String outcome = "success";
+
+    public BuildMetrics(String taskName) {
+        this.taskName = taskName;
+    }
+
+    /**
+     * Adds the time passed since {@code startNanos}, a value previously
+     * returned by {@link System#nanoTime()}, to the specified phase.
+     */
+    public synchronized void record(String phase, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        Long total = phases.get(phase);
+        phases.put(phase, total != null ? total + elapsed : elapsed);
+    }
+
+    public synchronized void failed() {
+        outcome = "failure";
+    }
+
+    public synchronized Map<String, Long> getPhaseMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            result.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return result;
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Writes {@code <task>.json} and {@code <task>.csv} into the specified
+     * directory.
+     */
+    public void writeReports(File dir) throws IOException {
+        Map<String, Long> phaseMillis = getPhaseMillis();
+        long totalMillis = getTotalMillis();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"task\": \"").append(escape(taskName)).append("\",\n");
+        json.append("  \"outcome\": \"").append(outcome).append("\",\n");
+        json.append("  \"totalMillis\": ").append(totalMillis).append(",\n");
+        json.append("  \"phases\": [");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : phaseMillis.entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    { \"name\": \"").append(escape(entry.getKey())).append("\", \"millis\": ")
+                    .append(entry.getValue()).append(" }");
+            first = false;
+        }
+        json.append("\n  ]\n}\n");
+
+        StringBuilder csv = new StringBuilder();
+        csv.append("task,phase,millis\n");
+        for (Map.Entry<String, Long> entry : phaseMillis.entrySet()) {
+            csv.append(taskName).append(',').append(entry.getKey()).append(',').append(entry.getValue()).append('\n');
+        }
+        csv.append(taskName).append(",total,").append(totalMillis).append('\n');
+
+        dir.mkdirs();
+        FileUtils.writeStringToFile(new File(dir, taskName + ".json"), json.toString(), "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, taskName + ".csv"), csv.toString(), "UTF-8");
+    }
+
+    /**
+     * Returns a one line summary suitable for logging.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(taskName).append(" took ").append(getTotalMillis()).append(" ms");
+        for (Map.Entry<String, Long> entry : getPhaseMillis().entrySet()) {
+            sb.append(", ").append(entry.getKey()).append(' ').append(entry.getValue()).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
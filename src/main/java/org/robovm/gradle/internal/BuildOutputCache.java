@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Stores the files produced by a RoboVM compilation, keyed by a hash of
+ * everything the compilation depends on. Entries are zip files named after
+ * their key in a local directory and, optionally, on an HTTP server which
+ * supports {@code GET} and {@code PUT}, e.g. a Gradle build cache node or a
+ * WebDAV enabled Nginx. Entries found remotely are copied to the local
+ * directory. Entries are only uploaded when {@code push} is set so that
+ * developer machines can read from a cache which only CI agents populate.
+ * Local entries which haven't been used for {@link #MAX_UNUSED_AGE} are
+ * removed whenever an entry is stored. Whether a file is executable is
+ * stored in an extra field of its zip entry, as zip entries written by
+ * {@link ZipOutputStream} carry no permissions.
+ */
+public class BuildOutputCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TIMEOUT = 30 * 1000;
+    private static final long MAX_UNUSED_AGE = 30L * 24 * 60 * 60 * 1000;
+    /**
+     * Temporary files older than this were left behind by killed builds.
+     */
+    private static final long MAX_TMP_AGE = 24L * 60 * 60 * 1000;
+    /**
+     * Part of every key, to be changed whenever the format of the entries
+     * changes.
+     */
+    private static final String FORMAT = "2";
+    /**
+     * The ID of the extra field holding the {@link #FLAG_EXECUTABLE flags}
+     * of a zip entry.
+     */
+    private static final int FLAGS_FIELD_ID = 0x5652;
+    private static final int FLAG_EXECUTABLE = 1;
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final File localDir;
+    private final String remoteUrl;
+    private final boolean push;
+    private final Logger logger;
+
+    public BuildOutputCache(File localDir, String remoteUrl, boolean push, Logger logger) {
+        this.localDir = localDir;
+        this.remoteUrl = remoteUrl != null && !remoteUrl.endsWith("/") ? remoteUrl + "/" : remoteUrl;
+        this.push = push;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the cache key for the specified inputs. Inputs must not
+     * contain absolute paths for entries to be reusable across checkouts.
+     */
+    public static String key(List<String> inputs) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(FORMAT.getBytes(UTF_8));
+        digest.update((byte) '\n');
+        for (String input : inputs) {
+            digest.update(input.getBytes(UTF_8));
+            digest.update((byte) '\n');
+        }
+        return DistributionCache.toHex(digest.digest());
+    }
+
+    /**
+     * Restores the entry with the specified key into {@code baseDir}.
+     *
+     * @return {@code true} if an entry was found.
+     */
+    public boolean load(String key, File baseDir) throws IOException {
+        File entry = new File(localDir, key + ".zip");
+        if (!entry.exists() && (remoteUrl == null || !download(key, entry))) {
+            return false;
+        }
+        unzip(entry, baseDir);
+        // Keep recently used entries recognizable for anyone pruning the
+        // directory
+        entry.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stores the specified files, given relative to {@code baseDir}, as the
+     * entry with the specified key.
+     */
+    public void store(String key, File baseDir, List<String> paths) throws IOException {
+        localDir.mkdirs();
+        File entry = new File(localDir, key + ".zip");
+        File tmpFile = new File(localDir, key + ".zip.tmp-" + UUID.randomUUID());
+        try {
+            zip(baseDir, paths, tmpFile);
+            Files.move(tmpFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmpFile.delete();
+        }
+        if (remoteUrl != null && push) {
+            upload(key, entry);
+        }
+        prune();
+    }
+
+    /**
+     * Removes the local entries which haven't been loaded or stored for
+     * {@link #MAX_UNUSED_AGE} and abandoned temporary files.
+     */
+    void prune() {
+        File[] children = localDir.listFiles();
+        if (children == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File child : children) {
+            String name = child.getName();
+            long age = now - child.lastModified();
+            if (name.contains(".tmp-") ? age > MAX_TMP_AGE : name.endsWith(".zip") && age > MAX_UNUSED_AGE) {
+                logger.debug("Removing unused RoboVM build cache entry " + child);
+                child.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the local copy of the entry with the specified key, if any.
+     */
+    public void removeLocal(String key) {
+        new File(localDir, key + ".zip").delete();
+    }
+
+    private boolean download(String key, File entry) {
+        HttpURLConnection conn = null;
+        File tmpFile = new File(localDir, key + ".zip.tmp-" + UUID.randomUUID());
+        try {
+            conn = open(key);
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                logger.warn("Unexpected response " + status + " from RoboVM build cache " + remoteUrl);
+                return false;
+            }
+            localDir.mkdirs();
+            try (InputStream in = conn.getInputStream(); OutputStream out = new FileOutputStream(tmpFile)) {
+                IOUtils.copy(in, out);
+            }
+            Files.move(tmpFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Downloaded RoboVM build cache entry " + key);
+            return true;
+        } catch (IOException e) {
+            // A cache which can't be reached shouldn't fail the build
+            logger.warn("Failed to load " + key + " from RoboVM build cache " + remoteUrl + ": " + e);
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            tmpFile.delete();
+        }
+    }
+
+    private void upload(String key, File entry) {
+        HttpURLConnection conn = null;
+        try {
+            conn = open(key);
+            conn.setRequestMethod("PUT");
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode((int) entry.length());
+            conn.setRequestProperty("Content-Type", "application/zip");
+            try (InputStream in = new FileInputStream(entry); OutputStream out = conn.getOutputStream()) {
+                IOUtils.copy(in, out);
+            }
+            int status = conn.getResponseCode();
+            if (status / 100 != 2) {
+                logger.warn("Unexpected response " + status + " storing " + key + " in RoboVM build cache " + remoteUrl);
+            } else {
+                logger.info("Uploaded RoboVM build cache entry " + key);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to store " + key + " in RoboVM build cache " + remoteUrl + ": " + e);
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private HttpURLConnection open(String key) throws IOException {
+        URL url = new URL(remoteUrl + key + ".zip");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(TIMEOUT);
+        conn.setReadTimeout(TIMEOUT);
+        if (url.getUserInfo() != null) {
+            conn.setRequestProperty("Authorization", "Basic "
+                    + base64(url.getUserInfo().getBytes(UTF_8)));
+        }
+        return conn;
+    }
+
+    static String base64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = Math.min(3, bytes.length - i);
+            int b = (bytes[i] & 0xff) << 16;
+            if (n > 1) {
+                b |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (n > 2) {
+                b |= bytes[i + 2] & 0xff;
+            }
+            for (int j = 0; j < 4; j++) {
+                sb.append(j <= n ? BASE64[(b >> (18 - 6 * j)) & 0x3f] : '=');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void zip(File baseDir, List<String> paths, File zipFile) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)))) {
+            for (String path : paths) {
+                File file = new File(baseDir, path);
+                ZipEntry entry = new ZipEntry(path.replace(File.separatorChar, '/'));
+                entry.setTime(file.lastModified());
+                int flags = file.canExecute() ? FLAG_EXECUTABLE : 0;
+                entry.setExtra(new byte[] { (byte) FLAGS_FIELD_ID, (byte) (FLAGS_FIELD_ID >> 8), 1, 0,
+                        (byte) flags });
+                out.putNextEntry(entry);
+                try (InputStream in = new FileInputStream(file)) {
+                    IOUtils.copy(in, out);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void unzip(File zipFile, File baseDir) throws IOException {
+        int restored = 0;
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                File file = new File(baseDir, entry.getName());
+                if (!file.getCanonicalPath().startsWith(baseDir.getCanonicalPath() + File.separator)) {
+                    throw new IOException("Invalid entry " + entry.getName() + " in " + zipFile);
+                }
+                file.getParentFile().mkdirs();
+                File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp-" + UUID.randomUUID());
+                try {
+                    try (OutputStream out = new FileOutputStream(tmpFile)) {
+                        IOUtils.copy(in, out);
+                    }
+                    if ((getFlags(entry) & FLAG_EXECUTABLE) != 0) {
+                        tmpFile.setExecutable(true, false);
+                    }
+                    tmpFile.setLastModified(entry.getTime());
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    tmpFile.delete();
+                }
+                restored++;
+            }
+        }
+        if (restored == 0) {
+            throw new IOException("Empty RoboVM build cache entry " + zipFile);
+        }
+    }
+
+    /**
+     * Returns the flags stored in the extra field of the specified entry, or
+     * 0 if it has none.
+     */
+    private static int getFlags(ZipEntry entry) {
+        byte[] extra = entry.getExtra();
+        int i = 0;
+        while (extra != null && i + 4 <= extra.length) {
+            int id = (extra[i] & 0xff) | (extra[i + 1] & 0xff) << 8;
+            int size = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (id == FLAGS_FIELD_ID && size > 0 && i + 4 < extra.length) {
+                return extra[i + 4] & 0xff;
+            }
+            i += 4 + size;
+        }
+        return 0;
+    }
+}
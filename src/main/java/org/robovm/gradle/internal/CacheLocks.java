@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Read/write locks on the entries of the compiler's cache directory which
+ * work across processes, so that concurrent builds can share one cache.
+ * Entries are identified by their paths relative to the cache directory as
+ * returned by {@link CacheMaintenance#getEntryPaths}. Keys are hashed onto
+ * {@value #STRIPES} stripes, so unrelated entries hardly ever share one.
+ * Each stripe is a byte of the single lock file {@code <cacheDir>/.locks/}
+ * {@value #LOCK_FILE_NAME}, so a process only ever has one file open per
+ * cache directory however many entries it locks. The file is open while any
+ * stripe is locked. Stripes are always acquired in ascending order so that
+ * builds locking several stripes can't deadlock. Within a process the
+ * stripes are guarded by {@link ReentrantReadWriteLock}s as file locks are
+ * held per process.
+ * <p>
+ * Builds lock the entries the compiler may write to exclusively and the
+ * entries it only reads shared. Eviction only ever tries to lock, and
+ * skips entries which are in use.
+ */
+public class CacheLocks {
+
+    static final int STRIPES = 65536;
+    static final String LOCKS_DIR_NAME = ".locks";
+    static final String LOCK_FILE_NAME = "stripes.lock";
+    private static final long POLL_INTERVAL = 100;
+
+    private static final Map<File, CacheLocks> INSTANCES = new HashMap<>();
+
+    private final File locksDir;
+    private final Map<Integer, Stripe> stripes = new HashMap<>();
+    /**
+     * The lock file while {@link #channelUsers} stripes are locked.
+     */
+    private FileChannel channel;
+    private int channelUsers;
+
+    private CacheLocks(File cacheDir) {
+        this.locksDir = new File(cacheDir, LOCKS_DIR_NAME);
+    }
+
+    /**
+     * Returns the locks of the specified cache directory. All users in a
+     * process share the same instance.
+     */
+    public static CacheLocks get(File cacheDir) throws IOException {
+        File dir = cacheDir.getCanonicalFile();
+        synchronized (INSTANCES) {
+            CacheLocks locks = INSTANCES.get(dir);
+            if (locks == null) {
+                locks = new CacheLocks(dir);
+                INSTANCES.put(dir, locks);
+            }
+            return locks;
+        }
+    }
+
+    /**
+     * Releases the locks it was returned for. Must be closed by the thread
+     * which acquired them.
+     */
+    public interface Handle extends Closeable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Locks the entries with the specified keys, all of them either shared
+     * or exclusively, see {@link #lock(Collection, Collection, Logger)}.
+     */
+    public Handle lock(Collection<String> keys, boolean shared, Logger logger) throws IOException {
+        Collection<String> none = Collections.emptyList();
+        return shared ? lock(none, keys, logger) : lock(keys, none, logger);
+    }
+
+    /**
+     * Locks the entries with the first keys exclusively and those with the
+     * second keys shared, waiting for other builds to release them if
+     * needed. A message is logged to the specified logger when waiting.
+     */
+    public Handle lock(Collection<String> exclusiveKeys, Collection<String> sharedKeys, Logger logger)
+            throws IOException {
+
+        // A stripe an exclusive and a shared key hash onto is locked
+        // exclusively
+        TreeMap<Integer, Boolean> modes = new TreeMap<>();
+        for (String key : sharedKeys) {
+            modes.put(stripe(key), Boolean.TRUE);
+        }
+        for (String key : exclusiveKeys) {
+            modes.put(stripe(key), Boolean.FALSE);
+        }
+        final List<Stripe> held = new ArrayList<>();
+        final List<Boolean> heldModes = new ArrayList<>();
+        boolean logged = false;
+        try {
+            for (Map.Entry<Integer, Boolean> e : modes.entrySet()) {
+                Stripe stripe = getStripe(e.getKey());
+                boolean shared = e.getValue();
+                if (!stripe.acquire(shared, false)) {
+                    if (!logged) {
+                        logger.lifecycle("Waiting for another build to release the RoboVM cache");
+                        logged = true;
+                    }
+                    stripe.acquire(shared, true);
+                }
+                held.add(stripe);
+                heldModes.add(shared);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(held, heldModes);
+            throw e;
+        }
+        return new Handle() {
+            @Override
+            public void close() {
+                release(held, heldModes);
+            }
+        };
+    }
+
+    /**
+     * Locks the entry with the specified key exclusively if no one else
+     * holds a lock on it.
+     *
+     * @return the lock or {@code null} if the entry is in use.
+     */
+    public Handle tryLock(String key) throws IOException {
+        final Stripe stripe = getStripe(stripe(key));
+        if (!stripe.acquire(false, false)) {
+            return null;
+        }
+        return new Handle() {
+            @Override
+            public void close() {
+                stripe.release(false);
+            }
+        };
+    }
+
+    private static void release(List<Stripe> held, List<Boolean> heldModes) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).release(heldModes.get(i));
+        }
+    }
+
+    private synchronized Stripe getStripe(int index) {
+        Stripe stripe = stripes.get(index);
+        if (stripe == null) {
+            stripe = new Stripe(index);
+            stripes.put(index, stripe);
+        }
+        return stripe;
+    }
+
+    /**
+     * Returns the lock file, opening it if no stripe is locked. Must be
+     * paired with a call to {@link #releaseChannel()}.
+     */
+    private synchronized FileChannel acquireChannel() throws IOException {
+        if (channel == null) {
+            locksDir.mkdirs();
+            channel = new RandomAccessFile(new File(locksDir, LOCK_FILE_NAME), "rw").getChannel();
+        }
+        channelUsers++;
+        return channel;
+    }
+
+    private synchronized void releaseChannel() {
+        if (--channelUsers == 0) {
+            // Nothing sensible to do if closing fails, the file is closed
+            // with the process at the latest
+            IOUtils.closeQuietly(channel);
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the number of files this instance has open.
+     */
+    synchronized int openFiles() {
+        return channel != null ? 1 : 0;
+    }
+
+    static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private class Stripe {
+        private final int index;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private FileLock fileLock;
+        private int holders;
+        private boolean locking;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+
+        boolean acquire(boolean shared, boolean wait) throws IOException {
+            Lock l = shared ? lock.readLock() : lock.writeLock();
+            if (wait) {
+                try {
+                    l.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the RoboVM cache", e);
+                }
+            } else if (!l.tryLock()) {
+                return false;
+            }
+            boolean locked = false;
+            try {
+                locked = lockFile(shared, wait);
+                return locked;
+            } finally {
+                if (!locked) {
+                    l.unlock();
+                }
+            }
+        }
+
+        /**
+         * Takes the file lock for the first holder. Further shared holders
+         * wait for it to be taken without holding the monitor, so nothing
+         * blocks in {@link FileChannel#lock} while holding it.
+         */
+        private boolean lockFile(boolean shared, boolean wait) throws IOException {
+            synchronized (this) {
+                while (locking) {
+                    if (!wait) {
+                        return false;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the RoboVM cache", e);
+                    }
+                }
+                if (holders > 0) {
+                    holders++;
+                    return true;
+                }
+                locking = true;
+            }
+            FileLock l = null;
+            try {
+                FileChannel c = acquireChannel();
+                try {
+                    l = lockRegion(c, shared, wait);
+                } finally {
+                    if (l == null) {
+                        releaseChannel();
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    locking = false;
+                    if (l != null) {
+                        fileLock = l;
+                        holders = 1;
+                    }
+                    notifyAll();
+                }
+            }
+            return l != null;
+        }
+
+        /**
+         * Polls for the lock rather than blocking in
+         * {@link FileChannel#lock}, as interrupting a thread blocked on the
+         * channel would close it and release the locks of all stripes.
+         */
+        private FileLock lockRegion(FileChannel c, boolean shared, boolean wait) throws IOException {
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Interrupted while waiting for the RoboVM cache");
+                }
+                FileLock l = c.tryLock(index, 1, shared);
+                if (l != null || !wait) {
+                    return l;
+                }
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the RoboVM cache", e);
+                }
+            }
+        }
+
+        void release(boolean shared) {
+            synchronized (this) {
+                if (--holders == 0) {
+                    try {
+                        fileLock.release();
+                    } catch (IOException e) {
+                        // Closing the file releases the lock too
+                    }
+                    fileLock = null;
+                    releaseChannel();
+                }
+            }
+            (shared ? lock.readLock() : lock.writeLock()).unlock();
+        }
+    }
+}
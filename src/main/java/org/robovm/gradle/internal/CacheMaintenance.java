@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.OS;
+
+/**
+ * Keeps the RoboVM compiler's cache directory within a size and age limit.
+ * The compiler caches the object files of every classpath entry in a
+ * directory of its own, {@code <cacheDir>/<os>/<arch>/<debug|release>/<path
+ * of the entry>}. Builds record when they used these entry directories in
+ * an index in the cache directory, and eviction deletes the least recently
+ * used entries first. Sizes are stored in the index too, so only entries
+ * which have been used since the last eviction are measured again.
+ */
+public class CacheMaintenance {
+
+    static final String INDEX_FILE_NAME = ".robovm-gradle-index";
+    private static final String EXTRA_PROPERTY_NAME = "robovm.cacheEviction";
+    /**
+     * Entries used this recently are never evicted as another build may
+     * still be compiling against them.
+     */
+    static final long IN_USE_MILLIS = 60 * 60 * 1000L;
+
+    private static final Object LOCK = new Object();
+
+    private final File cacheDir;
+    private final Logger logger;
+
+    public CacheMaintenance(File cacheDir, Logger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+    }
+
+    /**
+     * The outcome of {@link CacheMaintenance#evict(long, long)}.
+     */
+    public static class Result {
+        private final int evicted;
+        private final long freed;
+        private final long remaining;
+
+        Result(int evicted, long freed, long remaining) {
+            this.evicted = evicted;
+            this.freed = freed;
+            this.remaining = remaining;
+        }
+
+        public int getEvicted() {
+            return evicted;
+        }
+
+        public long getFreed() {
+            return freed;
+        }
+
+        public long getRemaining() {
+            return remaining;
+        }
+
+        @Override
+        public String toString() {
+            return "evicted " + evicted + " entries, freed " + FileUtils.byteCountToDisplaySize(freed)
+                    + ", " + FileUtils.byteCountToDisplaySize(remaining) + " left";
+        }
+    }
+
+    private static class IndexEntry {
+        long lastUsed;
+        long size = -1;
+        long sizedAt;
+        /**
+         * Identifies the classpath entry the cache entry was last compiled
+         * from, see {@link CacheMaintenance#getUpToDate(Map)}.
+         */
+        String stamp;
+    }
+
+    /**
+     * Returns the paths, relative to the cache directory, of the directories
+     * the compiler caches the object files of the specified classpath
+     * entries in. These paths are also the keys of the entries'
+     * {@link CacheLocks}. If the OS or archs aren't known the paths for
+     * every OS and arch are returned.
+     */
+    public static List<String> getEntryPaths(OS os, Collection<Arch> archs, boolean debug,
+            Collection<File> classpath) throws IOException {
+
+        List<OS> oses = os != null ? Collections.singletonList(os) : Arrays.asList(OS.values());
+        if (archs == null || archs.isEmpty()) {
+            archs = Arrays.asList(Arch.values());
+        }
+        List<String> canonicalPaths = new ArrayList<>();
+        for (File entry : classpath) {
+            String path = entry.getCanonicalPath();
+            canonicalPaths.add(path.startsWith(File.separator) ? path.substring(1) : path);
+        }
+        List<String> paths = new ArrayList<>();
+        for (OS o : oses) {
+            for (Arch arch : archs) {
+                String modeDir = o + File.separator + arch + File.separator + (debug ? "debug" : "release");
+                for (String path : canonicalPaths) {
+                    paths.add(modeDir + File.separator + path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Parses a size like {@code 512m} or {@code 10g}. Sizes without a unit
+     * are in bytes.
+     */
+    public static long parseSize(String size) {
+        String s = size.trim().toLowerCase();
+        long factor = 1;
+        if (s.endsWith("b")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.endsWith("k")) {
+            factor = 1024L;
+        } else if (s.endsWith("m")) {
+            factor = 1024L * 1024;
+        } else if (s.endsWith("g")) {
+            factor = 1024L * 1024 * 1024;
+        } else if (s.endsWith("t")) {
+            factor = 1024L * 1024 * 1024 * 1024;
+        }
+        if (factor > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            return Long.parseLong(s.trim()) * factor;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size '" + size + "'");
+        }
+    }
+
+    /**
+     * Records that the entries with the specified paths have been used now.
+     * Each path is mapped to a stamp of the classpath entry the cache entry
+     * is now up to date with, or {@code null} if that isn't known. Paths of
+     * entries which don't exist are ignored.
+     */
+    public void recordUse(Map<String, String> entryStamps) throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (LOCK) {
+            try (FileChannel channel = openIndexLock(); FileLock lock = channel.lock()) {
+                Map<String, IndexEntry> index = loadIndex();
+                for (Map.Entry<String, String> e : entryStamps.entrySet()) {
+                    String path = e.getKey();
+                    if (!new File(cacheDir, path).isDirectory()) {
+                        continue;
+                    }
+                    IndexEntry entry = index.get(path);
+                    if (entry == null) {
+                        entry = new IndexEntry();
+                        index.put(path, entry);
+                    }
+                    entry.lastUsed = now;
+                    entry.stamp = e.getValue();
+                }
+                saveIndex(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the paths of the specified entries which exist and were
+     * recorded as up to date with the stamps they're mapped to, so the
+     * compiler won't write to them. Entries mapped to {@code null} are
+     * never up to date.
+     */
+    public Set<String> getUpToDate(Map<String, String> entryStamps) throws IOException {
+        Set<String> upToDate = new HashSet<>();
+        synchronized (LOCK) {
+            try (FileChannel channel = openIndexLock(); FileLock lock = channel.lock()) {
+                Map<String, IndexEntry> index = loadIndex();
+                for (Map.Entry<String, String> e : entryStamps.entrySet()) {
+                    IndexEntry entry = index.get(e.getKey());
+                    if (entry != null && e.getValue() != null && e.getValue().equals(entry.stamp)
+                            && new File(cacheDir, e.getKey()).isDirectory()) {
+                        upToDate.add(e.getKey());
+                    }
+                }
+            }
+        }
+        return upToDate;
+    }
+
+    /**
+     * Adds the JAR entry directories found in the cache directory which
+     * aren't in the index yet, e.g. those compiled before the index
+     * existed. Their last use is taken to be their modification time. This
+     * walks the whole cache directory.
+     *
+     * @return the number of entries added.
+     */
+    public int adoptUntracked() throws IOException {
+        List<File> found = new ArrayList<>();
+        findJarDirs(cacheDir, 0, found);
+        synchronized (LOCK) {
+            try (FileChannel channel = openIndexLock(); FileLock lock = channel.lock()) {
+                Map<String, IndexEntry> index = loadIndex();
+                int added = 0;
+                for (File dir : found) {
+                    String path = relativize(dir);
+                    if (path != null && !index.containsKey(path)) {
+                        IndexEntry entry = new IndexEntry();
+                        entry.lastUsed = dir.lastModified();
+                        index.put(path, entry);
+                        added++;
+                    }
+                }
+                saveIndex(index);
+                return added;
+            }
+        }
+    }
+
+    private static void findJarDirs(File dir, int depth, List<File> found) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.isDirectory() || Files.isSymbolicLink(child.toPath())) {
+                continue;
+            }
+            // Only below <os>/<arch>/<mode>
+            if (depth >= 3 && child.getName().endsWith(".jar")) {
+                found.add(child);
+            } else {
+                findJarDirs(child, depth + 1, found);
+            }
+        }
+    }
+
+    /**
+     * Evicts entries which haven't been used for longer than
+     * {@code maxAgeMillis} and then the least recently used entries until
+     * the entries take up no more than {@code maxSize} bytes. Negative
+     * limits are ignored.
+     */
+    public Result evict(long maxSize, long maxAgeMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        deleteTrash();
+        List<File> evict = new ArrayList<>();
+        long freed = 0;
+        long total = 0;
+        CacheLocks locks = CacheLocks.get(cacheDir);
+        synchronized (LOCK) {
+            try (FileChannel channel = openIndexLock(); FileLock lock = channel.lock()) {
+                Map<String, IndexEntry> index = loadIndex();
+                List<Map.Entry<String, IndexEntry>> entries = new ArrayList<>();
+                for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+                    File dir = new File(cacheDir, e.getKey());
+                    IndexEntry entry = e.getValue();
+                    if (!dir.isDirectory()) {
+                        continue;
+                    }
+                    if (entry.size < 0 || entry.sizedAt < entry.lastUsed) {
+                        entry.size = FileUtils.sizeOfDirectory(dir);
+                        entry.sizedAt = now;
+                    }
+                    total += entry.size;
+                    entries.add(e);
+                }
+                Collections.sort(entries, new Comparator<Map.Entry<String, IndexEntry>>() {
+                    @Override
+                    public int compare(Map.Entry<String, IndexEntry> o1, Map.Entry<String, IndexEntry> o2) {
+                        return Long.compare(o1.getValue().lastUsed, o2.getValue().lastUsed);
+                    }
+                });
+
+                Map<String, IndexEntry> kept = new LinkedHashMap<>();
+                List<File> trash = new ArrayList<>();
+                for (Map.Entry<String, IndexEntry> e : entries) {
+                    IndexEntry entry = e.getValue();
+                    boolean inUse = now - entry.lastUsed < IN_USE_MILLIS;
+                    boolean tooOld = maxAgeMillis >= 0 && now - entry.lastUsed > maxAgeMillis;
+                    boolean tooBig = maxSize >= 0 && total > maxSize;
+                    if (!inUse && (tooOld || tooBig) && moveToTrash(locks, e.getKey(), trash)) {
+                        total -= entry.size;
+                        freed += entry.size;
+                    } else {
+                        kept.put(e.getKey(), entry);
+                    }
+                }
+                saveIndex(kept);
+                evict = trash;
+            }
+        }
+        for (File dir : evict) {
+            FileUtils.deleteQuietly(dir);
+        }
+        return new Result(evict.size(), freed, total);
+    }
+
+    /**
+     * Moves the entry with the specified path out of the way unless another
+     * build holds a lock on it. Builds never see a half deleted entry.
+     */
+    private boolean moveToTrash(CacheLocks locks, String path, List<File> trash) throws IOException {
+        File dir = new File(cacheDir, path);
+        try (CacheLocks.Handle handle = locks.tryLock(path)) {
+            if (handle == null) {
+                logger.info("Not evicting " + dir + " from the RoboVM cache as it is in use");
+                return false;
+            }
+            File trashDir = new File(cacheDir, ".trash-" + UUID.randomUUID());
+            if (!dir.renameTo(trashDir)) {
+                logger.warn("Failed to evict " + dir + " from the RoboVM cache");
+                return false;
+            }
+            trash.add(trashDir);
+            return true;
+        }
+    }
+
+    private void deleteTrash() {
+        File[] children = cacheDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.getName().startsWith(".trash-")) {
+                    FileUtils.deleteQuietly(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts entries from the specified cache directory in the background
+     * once the build of the specified project has finished. Every cache
+     * directory is only evicted once per build.
+     */
+    @SuppressWarnings("unchecked")
+    public static void scheduleEviction(Project project, File cacheDir, final long maxSize, final long maxAgeMillis) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        final Map<File, Boolean> scheduled;
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME) && ext.get(EXTRA_PROPERTY_NAME) instanceof Map) {
+                scheduled = (Map<File, Boolean>) ext.get(EXTRA_PROPERTY_NAME);
+            } else {
+                scheduled = new LinkedHashMap<>();
+                ext.set(EXTRA_PROPERTY_NAME, scheduled);
+            }
+            if (scheduled.containsKey(cacheDir)) {
+                return;
+            }
+            scheduled.put(cacheDir, Boolean.TRUE);
+        }
+
+        final CacheMaintenance maintenance = new CacheMaintenance(cacheDir, Logging.getLogger(CacheMaintenance.class));
+        project.getGradle().addBuildListener(new BuildAdapter() {
+            @Override
+            public void buildFinished(BuildResult result) {
+                Thread thread = new Thread("RoboVM cache eviction") {
+                    @Override
+                    public void run() {
+                        try {
+                            Result r = maintenance.evict(maxSize, maxAgeMillis);
+                            maintenance.logger.info("RoboVM cache " + maintenance.cacheDir + ": " + r);
+                        } catch (IOException e) {
+                            maintenance.logger.warn("Failed to evict entries from the RoboVM cache "
+                                    + maintenance.cacheDir, e);
+                        }
+                    }
+                };
+                // Doesn't keep a Gradle process which isn't a daemon alive.
+                // Evictions cut short leave trash which the next eviction
+                // deletes.
+                thread.setDaemon(true);
+                thread.start();
+            }
+        });
+    }
+
+    private String relativize(File dir) {
+        String base = cacheDir.getAbsolutePath() + File.separator;
+        String path = dir.getAbsolutePath();
+        return path.startsWith(base) ? path.substring(base.length()) : null;
+    }
+
+    private FileChannel openIndexLock() throws IOException {
+        cacheDir.mkdirs();
+        return new RandomAccessFile(new File(cacheDir, INDEX_FILE_NAME + ".lock"), "rw").getChannel();
+    }
+
+    private Map<String, IndexEntry> loadIndex() throws IOException {
+        Map<String, IndexEntry> index = new LinkedHashMap<>();
+        File indexFile = new File(cacheDir, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return index;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(indexFile)) {
+            props.load(in);
+        }
+        for (String path : props.stringPropertyNames()) {
+            String[] parts = props.getProperty(path).split(":", 4);
+            try {
+                IndexEntry entry = new IndexEntry();
+                entry.lastUsed = Long.parseLong(parts[0]);
+                if (parts.length >= 3) {
+                    entry.size = Long.parseLong(parts[1]);
+                    entry.sizedAt = Long.parseLong(parts[2]);
+                }
+                if (parts.length == 4) {
+                    entry.stamp = parts[3];
+                }
+                index.put(path, entry);
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring invalid RoboVM cache index entry " + path);
+            }
+        }
+        return index;
+    }
+
+    private void saveIndex(Map<String, IndexEntry> index) throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+            IndexEntry entry = e.getValue();
+            String value = Long.toString(entry.lastUsed);
+            if (entry.size >= 0 || entry.stamp != null) {
+                value += ":" + entry.size + ":" + entry.sizedAt;
+            }
+            if (entry.stamp != null) {
+                value += ":" + entry.stamp;
+            }
+            props.setProperty(e.getKey(), value);
+        }
+        File indexFile = new File(cacheDir, INDEX_FILE_NAME);
+        File tmpFile = new File(cacheDir, INDEX_FILE_NAME + ".tmp-" + UUID.randomUUID());
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                props.store(out, null);
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+}
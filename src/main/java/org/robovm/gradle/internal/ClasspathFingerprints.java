@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Index of classpath entry content hashes. Hashes are stored together with
+ * each file's size and modification time, so a file is only read again when
+ * one of those changed. Directories are fingerprinted by the relative paths
+ * and hashes of the files they contain.
+ * <p>
+ * The RoboVM compiler decides whether the cached object files of a class
+ * are stale by comparing modification times. A JAR which is downloaded or
+ * copied again with unchanged contents therefore makes the compiler
+ * recompile all of its classes. {@link #stage(List, File)} avoids that by
+ * handing the compiler a copy of each JAR, stored by content hash, whose
+ * modification time only changes when its contents do. Staged copies which
+ * haven't been used for {@link #MAX_UNUSED_AGE} are removed.
+ * <p>
+ * Several tasks may use the same index file concurrently.
+ * {@link #save()} therefore merges the hashes computed by this instance into
+ * the index on disk under a file lock instead of overwriting it.
+ */
+public class ClasspathFingerprints {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_UNUSED_AGE = 30L * 24 * 60 * 60 * 1000;
+    private static final String LOCK_FILE_NAME = ".lock";
+    /**
+     * Guards the file locks against concurrent use within this JVM, which
+     * {@link FileChannel#lock()} doesn't allow.
+     */
+    private static final Object LOCK = new Object();
+
+    private final File indexFile;
+    private final Logger logger;
+    private final Properties index = new Properties();
+    private final Map<String, String> updates = new HashMap<>();
+    private int changed;
+    private int unchanged;
+
+    public ClasspathFingerprints(File indexFile, Logger logger) {
+        this.indexFile = indexFile;
+        this.logger = logger;
+        if (indexFile.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(indexFile);
+                index.load(in);
+            } catch (IOException e) {
+                logger.debug("Ignoring unreadable classpath index " + indexFile);
+                index.clear();
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Returns the content hash of the specified file or directory. Entries
+     * which don't exist have the fingerprint {@code "missing"}.
+     */
+    public synchronized String fingerprint(File entry) throws IOException {
+        if (entry.isDirectory()) {
+            MessageDigest digest = newDigest();
+            fingerprintDirectory(entry, "", digest);
+            return DistributionCache.toHex(digest.digest());
+        }
+        if (!entry.isFile()) {
+            return "missing";
+        }
+        return fingerprintFile(entry, true);
+    }
+
+    private void fingerprintDirectory(File dir, String prefix, MessageDigest digest) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                fingerprintDirectory(child, path + "/", digest);
+            } else {
+                digest.update(path.getBytes(UTF_8));
+                digest.update((byte) 0);
+                digest.update(fingerprintFile(child, false).getBytes(UTF_8));
+            }
+        }
+    }
+
+    private String fingerprintFile(File file, boolean count) throws IOException {
+        String key = file.getAbsolutePath();
+        String stamp = file.length() + ":" + file.lastModified() + ":";
+        String value = index.getProperty(key);
+        if (value != null && value.startsWith(stamp)) {
+            if (count) {
+                unchanged++;
+            }
+            return value.substring(stamp.length());
+        }
+        String sha1 = DistributionCache.sha1(file);
+        if (count) {
+            if (value != null && value.endsWith(":" + sha1)) {
+                // Touched but not modified
+                unchanged++;
+            } else {
+                changed++;
+                logger.debug("Classpath entry " + file + " changed since the last build");
+            }
+        }
+        index.setProperty(key, stamp + sha1);
+        updates.put(key, stamp + sha1);
+        return sha1;
+    }
+
+    /**
+     * Returns the specified classpath with every JAR replaced by a copy
+     * stored below {@code stageRoot} by its content hash. Copies are only
+     * made for contents not staged before. Directories are returned as is.
+     * Copies not used for {@link #MAX_UNUSED_AGE} by any build are removed.
+     */
+    public synchronized List<File> stage(List<File> classpath, File stageRoot) throws IOException {
+        // Hash outside of the lock, other builds only wait for copying
+        List<String> hashes = new ArrayList<>();
+        for (File entry : classpath) {
+            hashes.add(entry.isFile() ? fingerprint(entry) : null);
+        }
+
+        List<File> result = new ArrayList<>();
+        stageRoot.mkdirs();
+        synchronized (LOCK) {
+            try (FileChannel channel = new RandomAccessFile(new File(stageRoot, LOCK_FILE_NAME), "rw").getChannel();
+                    FileLock lock = channel.lock()) {
+
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < classpath.size(); i++) {
+                    File entry = classpath.get(i);
+                    if (hashes.get(i) == null) {
+                        result.add(entry);
+                        continue;
+                    }
+                    File stageDir = new File(stageRoot, hashes.get(i));
+                    File staged = new File(stageDir, entry.getName());
+                    if (!staged.exists()) {
+                        stageDir.mkdirs();
+                        File tmpFile = new File(stageDir, entry.getName() + ".tmp-" + UUID.randomUUID());
+                        try {
+                            FileUtils.copyFile(entry, tmpFile, false);
+                            Files.move(tmpFile.toPath(), staged.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        } finally {
+                            tmpFile.delete();
+                        }
+                    }
+                    // The directory's time records the last use, the
+                    // JAR's must stay as it is
+                    stageDir.setLastModified(now);
+                    result.add(staged);
+                }
+                prune(stageRoot, now);
+            }
+        }
+        logger.info("RoboVM classpath: " + changed + " changed and " + unchanged
+                + " unchanged entries since the last build");
+        return result;
+    }
+
+    /**
+     * Removes the staged copies which haven't been used for
+     * {@link #MAX_UNUSED_AGE}. Must be called holding the lock.
+     */
+    private void prune(File stageRoot, long now) {
+        File[] children = stageRoot.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() && now - child.lastModified() > MAX_UNUSED_AGE) {
+                logger.debug("Removing unused staged classpath entry " + child);
+                FileUtils.deleteQuietly(child);
+            }
+        }
+    }
+
+    /**
+     * Adds the hashes computed since this instance was created, or last
+     * saved, to the index file. Entries added by others in the meantime are
+     * kept.
+     */
+    public synchronized void save() throws IOException {
+        if (updates.isEmpty()) {
+            return;
+        }
+        File dir = indexFile.getParentFile();
+        dir.mkdirs();
+        File tmpFile = new File(dir, indexFile.getName() + ".tmp-" + UUID.randomUUID());
+        synchronized (LOCK) {
+            try (FileChannel channel = new RandomAccessFile(new File(dir, indexFile.getName() + ".lock"), "rw")
+                    .getChannel(); FileLock lock = channel.lock()) {
+
+                Properties merged = new Properties();
+                if (indexFile.exists()) {
+                    try (InputStream in = new FileInputStream(indexFile)) {
+                        merged.load(in);
+                    } catch (IOException e) {
+                        logger.debug("Replacing unreadable classpath index " + indexFile);
+                        merged.clear();
+                    }
+                }
+                merged.putAll(updates);
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    merged.store(out, "RoboVM classpath fingerprints");
+                }
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                updates.clear();
+            } finally {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
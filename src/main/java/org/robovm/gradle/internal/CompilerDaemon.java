@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.Version;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.config.OS;
+import org.robovm.compiler.log.Logger;
+
+/**
+ * Long-lived RoboVM compiler process. The daemon listens on a loopback
+ * socket and runs one {@link Request} at a time, streaming the compiler's
+ * log back to the client. Between requests the JVM keeps its loaded classes
+ * and JIT compiled code, so repeated builds skip the compiler's warm-up.
+ * The {@link Config} built for a request is kept too and reused for the
+ * next request as long as its {@link #configKey(CompilerSettings) key}
+ * stays the same, which saves resolving the classpath and setting up the
+ * target again.
+ * <p>
+ * The daemon writes its port and an authentication token to
+ * {@value #INFO_FILE_NAME} in its directory. A client sends the token as
+ * plain data first. Only if it matches is the serialized {@link Request}
+ * read, and then only the classes a request consists of may be
+ * deserialized. The daemon exits when it has been idle
+ * for the idle timeout given on the command line, when it receives a request
+ * for another RoboVM version and when the heap is still more than
+ * {@link #MAX_HEAP_USAGE} full after a request and a GC.
+ */
+public class CompilerDaemon {
+
+    public static final String INFO_FILE_NAME = "daemon.properties";
+
+    public static final String ACTION_BUILD = "build";
+
+    /**
+     * The log levels in ascending order of severity.
+     */
+    public static final List<String> LOG_LEVELS = Arrays.asList("debug", "info", "warn", "error");
+
+    private static final double MAX_HEAP_USAGE = 0.75;
+    private static final int TOKEN_TIMEOUT = 10000;
+
+    /**
+     * The classes which may be deserialized from a client, those of a
+     * {@link Request} and its {@link CompilerSettings}.
+     */
+    private static final Set<String> REQUEST_CLASSES = new HashSet<>(Arrays.asList(
+            Request.class.getName(), CompilerSettings.class.getName(), String.class.getName(),
+            Boolean.class.getName(), Integer.class.getName(), Number.class.getName(), Enum.class.getName(),
+            File.class.getName(), ArrayList.class.getName(), OS.class.getName(), Arch.class.getName()));
+
+    private final File dir;
+    private final long idleTimeout;
+    private final String token = UUID.randomUUID().toString();
+    /**
+     * The compiler log of the {@link Config} kept between requests, which
+     * forwards to the client of the current request.
+     */
+    private final ForwardingLogger configLogger = new ForwardingLogger();
+    private Config config;
+    private String configKey;
+
+    CompilerDaemon(File dir, long idleTimeout) {
+        this.dir = dir;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: " + CompilerDaemon.class.getName() + " <dir> <idle-timeout-millis>");
+            System.exit(1);
+        }
+        new CompilerDaemon(new File(args[0]), Long.parseLong(args[1])).run();
+        System.exit(0);
+    }
+
+    void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeout));
+            writeInfoFile(serverSocket.getLocalPort());
+            log("Listening on port " + serverSocket.getLocalPort());
+
+            while (true) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    log("Idle timeout reached, exiting");
+                    return;
+                }
+                boolean keepRunning;
+                try {
+                    keepRunning = handle(socket);
+                } catch (Throwable t) {
+                    log("Failed to handle request: " + stackTrace(t));
+                    keepRunning = true;
+                } finally {
+                    socket.close();
+                }
+                if (!keepRunning) {
+                    return;
+                }
+            }
+        } finally {
+            deleteInfoFile();
+        }
+    }
+
+    /**
+     * Returns {@code false} if the daemon should exit after this request.
+     */
+    private boolean handle(Socket socket) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        // Don't let a client which never sends anything block the daemon
+        socket.setSoTimeout(TOKEN_TIMEOUT);
+        String clientToken = in.readUTF();
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                clientToken.getBytes(StandardCharsets.UTF_8))) {
+            log("Rejecting connection with invalid token");
+            return true;
+        }
+        socket.setSoTimeout(0);
+
+        final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        Request request = (Request) new RequestInputStream(in).readObject();
+        if (!Version.getVersion().equals(request.version)) {
+            send(out, new Response(false, false, "Daemon runs RoboVM " + Version.getVersion()
+                    + " but " + request.version + " was requested"));
+            // Make room for a daemon of the requested version
+            deleteInfoFile();
+            return false;
+        }
+        if (!ACTION_BUILD.equals(request.action)) {
+            send(out, new Response(false, true, "Unsupported action " + request.action));
+            return true;
+        }
+        final int threshold = Math.max(0, LOG_LEVELS.indexOf(request.logLevel));
+
+        Logger logger = new Logger() {
+            @Override
+            public void debug(String s, Object... objects) {
+                sendLog("debug", s, objects);
+            }
+
+            @Override
+            public void info(String s, Object... objects) {
+                sendLog("info", s, objects);
+            }
+
+            @Override
+            public void warn(String s, Object... objects) {
+                sendLog("warn", s, objects);
+            }
+
+            @Override
+            public void error(String s, Object... objects) {
+                sendLog("error", s, objects);
+            }
+
+            private void sendLog(String level, String s, Object... objects) {
+                if (LOG_LEVELS.indexOf(level) < threshold) {
+                    return;
+                }
+                String message = String.format(s, objects);
+                try {
+                    send(out, new LogEvent(level, message));
+                } catch (IOException e) {
+                    // Client went away. The build result will fail to be sent too.
+                }
+            }
+        };
+
+        boolean success;
+        String error = null;
+        configLogger.target = logger;
+        try {
+            build(getConfig(request.settings));
+            success = true;
+        } catch (Throwable t) {
+            success = false;
+            error = stackTrace(t);
+            // Don't reuse a config a failed build may have left half set up
+            configKey = null;
+            config = null;
+        } finally {
+            configLogger.target = null;
+        }
+
+        boolean recycle = isMemoryLow();
+        if (recycle) {
+            log("Heap usage too high, exiting after this request");
+            // Clients must not pick this daemon again
+            deleteInfoFile();
+        }
+        send(out, new Response(success, !recycle, error));
+        return !recycle;
+    }
+
+    /**
+     * Returns the {@link Config} for the specified settings, reusing the one
+     * built for the previous request if its key is the same.
+     */
+    private Config getConfig(CompilerSettings settings) throws Exception {
+        String key = configKey(settings);
+        if (!key.equals(configKey)) {
+            configKey = null;
+            config = buildConfig(settings, configLogger);
+            configKey = key;
+        } else {
+            configLogger.debug("Reusing the RoboVM config of the previous build");
+        }
+        return config;
+    }
+
+    Config buildConfig(CompilerSettings settings, Logger logger) throws Exception {
+        return settings.applyTo(new Config.Builder(), logger, null).build();
+    }
+
+    void build(Config config) throws Exception {
+        new AppCompiler(config).build();
+    }
+
+    /**
+     * Returns a key which changes whenever the {@link Config} built from the
+     * specified settings might: when the settings themselves change or the
+     * size or modification time of the properties and config files or of any
+     * file on the classpath.
+     */
+    static String configKey(CompilerSettings settings) throws Exception {
+        List<String> inputs = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(settings);
+        }
+        inputs.add(DistributionCache.toHex(MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray())));
+        for (File file : settings.getConfigFiles()) {
+            addStamps(file, inputs);
+        }
+        if (settings.getClasspath() != null) {
+            for (File entry : settings.getClasspath()) {
+                addStamps(entry, inputs);
+            }
+        }
+        return BuildOutputCache.key(inputs);
+    }
+
+    private static void addStamps(File file, List<String> inputs) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                addStamps(child, inputs);
+            }
+        } else {
+            inputs.add(file.getPath() + ":" + file.length() + ":" + file.lastModified());
+        }
+    }
+
+    private static boolean isMemoryLow() {
+        Runtime rt = Runtime.getRuntime();
+        if (rt.totalMemory() - rt.freeMemory() < rt.maxMemory() * MAX_HEAP_USAGE) {
+            return false;
+        }
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory() >= rt.maxMemory() * MAX_HEAP_USAGE;
+    }
+
+    private static void send(ObjectOutputStream out, Object message) throws IOException {
+        synchronized (out) {
+            out.writeObject(message);
+            out.reset();
+            out.flush();
+        }
+    }
+
+    private void writeInfoFile(int port) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("port", String.valueOf(port));
+        props.setProperty("token", token);
+        props.setProperty("version", Version.getVersion());
+
+        dir.mkdirs();
+        File tmpFile = new File(dir, INFO_FILE_NAME + ".tmp-" + UUID.randomUUID());
+        // Only the owner may read the token
+        tmpFile.createNewFile();
+        tmpFile.setReadable(false, false);
+        tmpFile.setReadable(true, true);
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            props.store(out, "RoboVM compiler daemon");
+        }
+        Files.move(tmpFile.toPath(), new File(dir, INFO_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void deleteInfoFile() {
+        // Don't delete the file of a daemon which replaced this one
+        File infoFile = new File(dir, INFO_FILE_NAME);
+        Properties props = CompilerDaemonClient.readInfoFile(infoFile);
+        if (props != null && token.equals(props.getProperty("token"))) {
+            infoFile.delete();
+        }
+    }
+
+    private static void log(String message) {
+        System.out.println(new Date() + " " + message);
+        System.out.flush();
+    }
+
+    private static String stackTrace(Throwable t) {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Forwards to the logger of the request being handled and drops messages
+     * logged between requests.
+     */
+    private static class ForwardingLogger implements Logger {
+        volatile Logger target;
+
+        @Override
+        public void debug(String s, Object... objects) {
+            Logger logger = target;
+            if (logger != null) {
+                logger.debug(s, objects);
+            }
+        }
+
+        @Override
+        public void info(String s, Object... objects) {
+            Logger logger = target;
+            if (logger != null) {
+                logger.info(s, objects);
+            }
+        }
+
+        @Override
+        public void warn(String s, Object... objects) {
+            Logger logger = target;
+            if (logger != null) {
+                logger.warn(s, objects);
+            }
+        }
+
+        @Override
+        public void error(String s, Object... objects) {
+            Logger logger = target;
+            if (logger != null) {
+                logger.error(s, objects);
+            }
+        }
+    }
+
+    /**
+     * Deserializes a {@link Request}, refusing all classes a request
+     * doesn't consist of.
+     */
+    private static class RequestInputStream extends ObjectInputStream {
+
+        RequestInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!REQUEST_CLASSES.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class not allowed in a compiler daemon request");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    /**
+     * A request sent by a client once its token has been accepted.
+     */
+    public static class Request implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        final String version;
+        final CompilerSettings settings;
+        final String action;
+        final String logLevel;
+
+        /**
+         * @param logLevel the lowest of the {@link #LOG_LEVELS} the client
+         *            wants to receive log messages for.
+         */
+        public Request(String version, CompilerSettings settings, String action, String logLevel) {
+            this.version = version;
+            this.settings = settings;
+            this.action = action;
+            this.logLevel = logLevel;
+        }
+    }
+
+    public static class LogEvent implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String level;
+        final String message;
+
+        LogEvent(String level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    public static class Response implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final boolean success;
+        final boolean daemonAlive;
+        final String error;
+
+        Response(boolean success, boolean daemonAlive, String error) {
+            this.success = success;
+            this.daemonAlive = daemonAlive;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.GradleException;
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.Version;
+import org.robovm.compiler.log.Logger;
+
+/**
+ * Runs builds in a {@link CompilerDaemon}, starting the daemon first if none
+ * is running.
+ */
+public class CompilerDaemonClient {
+
+    private static final long START_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final long IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(3);
+
+    private final File dir;
+    private final String maxHeap;
+    private final org.gradle.api.logging.Logger gradleLogger;
+    private String token;
+
+    /**
+     * @param dir the directory of the daemon. One daemon runs per directory.
+     * @param maxHeap the {@code -Xmx} value for the daemon JVM or
+     *            {@code null} for the JVM default.
+     */
+    public CompilerDaemonClient(File dir, String maxHeap, org.gradle.api.logging.Logger gradleLogger) {
+        this.dir = dir;
+        this.maxHeap = maxHeap;
+        this.gradleLogger = gradleLogger;
+    }
+
+    /**
+     * Runs the specified action, currently always
+     * {@link CompilerDaemon#ACTION_BUILD}, in the daemon. Log messages sent
+     * by the daemon at {@code logLevel}, one of
+     * {@link CompilerDaemon#LOG_LEVELS}, or above are forwarded to
+     * {@code logger}.
+     */
+    public void execute(CompilerSettings settings, String action, String logLevel, Logger logger)
+            throws IOException {
+
+        Socket socket = connect();
+        try {
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // The daemon checks the token before it deserializes anything
+            dataOut.writeUTF(token);
+            ObjectOutputStream out = new ObjectOutputStream(dataOut);
+            out.writeObject(new CompilerDaemon.Request(Version.getVersion(), settings, action, logLevel));
+            out.flush();
+
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                Object message;
+                try {
+                    message = in.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+                if (message instanceof CompilerDaemon.LogEvent) {
+                    forward(logger, (CompilerDaemon.LogEvent) message);
+                } else if (message instanceof CompilerDaemon.Response) {
+                    CompilerDaemon.Response response = (CompilerDaemon.Response) message;
+                    if (!response.daemonAlive) {
+                        gradleLogger.info("RoboVM compiler daemon in " + dir + " has stopped");
+                    }
+                    if (!response.success) {
+                        throw new GradleException("RoboVM compiler daemon failed to " + action + " the app:\n"
+                                + response.error);
+                    }
+                    return;
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void forward(Logger logger, CompilerDaemon.LogEvent event) {
+        switch (event.level) {
+        case "debug":
+            logger.debug(event.message);
+            break;
+        case "info":
+            logger.info(event.message);
+            break;
+        case "warn":
+            logger.warn(event.message);
+            break;
+        default:
+            logger.error(event.message);
+        }
+    }
+
+    /**
+     * Connects to the running daemon or starts a new one.
+     */
+    private Socket connect() throws IOException {
+        Socket socket = tryConnect();
+        if (socket != null) {
+            return socket;
+        }
+
+        dir.mkdirs();
+        // Keep concurrent builds from starting a daemon each
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "start.lock"), "rw");
+                FileLock lock = lockFile.getChannel().lock()) {
+
+            socket = tryConnect();
+            if (socket != null) {
+                return socket;
+            }
+
+            File infoFile = new File(dir, CompilerDaemon.INFO_FILE_NAME);
+            infoFile.delete();
+            startDaemon();
+
+            long deadline = System.currentTimeMillis() + START_TIMEOUT;
+            while (System.currentTimeMillis() < deadline) {
+                socket = tryConnect();
+                if (socket != null) {
+                    return socket;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the RoboVM compiler daemon", e);
+                }
+            }
+        }
+        throw new IOException("Timed out waiting for the RoboVM compiler daemon to start. See "
+                + new File(dir, "daemon.log") + " for details.");
+    }
+
+    private Socket tryConnect() {
+        Properties props = readInfoFile(new File(dir, CompilerDaemon.INFO_FILE_NAME));
+        if (props == null || !Version.getVersion().equals(props.getProperty("version"))) {
+            return null;
+        }
+        Socket socket = new Socket();
+        try {
+            int port = Integer.parseInt(props.getProperty("port"));
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+            token = props.getProperty("token");
+            return socket;
+        } catch (IOException | NumberFormatException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    static Properties readInfoFile(File infoFile) {
+        if (!infoFile.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(infoFile)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return props;
+    }
+
+    private void startDaemon() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        if (maxHeap != null) {
+            command.add("-Xmx" + maxHeap);
+        }
+        command.add("-cp");
+        command.add(daemonClasspath());
+        command.add(CompilerDaemon.class.getName());
+        command.add(dir.getAbsolutePath());
+        command.add(String.valueOf(IDLE_TIMEOUT));
+
+        gradleLogger.info("Starting RoboVM compiler daemon in " + dir);
+        gradleLogger.debug("RoboVM compiler daemon command line: " + command);
+
+        File logFile = new File(dir, "daemon.log");
+        FileUtils.deleteQuietly(logFile);
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(dir);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
+        pb.start();
+    }
+
+    /**
+     * Returns the classpath of the daemon JVM: the plugin itself, the RoboVM
+     * compiler and the Gradle API classes the shared code refers to.
+     */
+    private static String daemonClasspath() throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        ClassLoader loader = CompilerDaemon.class.getClassLoader();
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                addFile(files, url);
+            }
+        }
+        for (Class<?> c : new Class<?>[] { CompilerDaemon.class, AppCompiler.class, GradleException.class,
+                FileUtils.class }) {
+            if (c.getProtectionDomain().getCodeSource() != null) {
+                addFile(files, c.getProtectionDomain().getCodeSource().getLocation());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (File f : files) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
+            }
+            sb.append(f.getAbsolutePath());
+        }
+        return sb.toString();
+    }
+
+    private static void addFile(Set<File> files, URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                files.add(new File(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
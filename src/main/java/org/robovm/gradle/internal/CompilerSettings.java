@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.GradleException;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.config.OS;
+import org.robovm.compiler.log.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Everything a RoboVM task feeds into a {@link Config.Builder}, captured as
+ * plain serializable values so that the same configuration can be applied
+ * in the Gradle process and in a {@link CompilerDaemon}.
+ */
+public class CompilerSettings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Pattern PROPERTY_REFERENCE = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private File projectDir;
+    private File propertiesFile;
+    private File configFile;
+    private File home;
+    private File tmpDir;
+    private File installDir;
+    private File cacheDir;
+    private String mainClass;
+    private boolean debug;
+    private int debugPort = -1;
+    private boolean skipLinking;
+    private boolean skipInstall = true;
+    private boolean iosSkipSigning;
+    private String iosSignIdentity;
+    private String iosProvisioningProfile;
+    private String keychainPassword;
+    private File keychainPasswordFile;
+    private List<File> classpath = new ArrayList<>();
+    private OS os;
+    private Arch arch;
+    private List<Arch> archs;
+    private String targetType;
+    private Boolean enableBitcode;
+    private transient SigningLookup signingLookup;
+    private transient ConfigFileCache configFileCache;
+
+    public CompilerSettings projectDir(File projectDir) {
+        this.projectDir = projectDir;
+        return this;
+    }
+
+    public CompilerSettings propertiesFile(File propertiesFile) {
+        this.propertiesFile = propertiesFile;
+        return this;
+    }
+
+    public CompilerSettings configFile(File configFile) {
+        this.configFile = configFile;
+        return this;
+    }
+
+    public CompilerSettings home(File home) {
+        this.home = home;
+        return this;
+    }
+
+    public File getHome() {
+        return home;
+    }
+
+    public CompilerSettings tmpDir(File tmpDir) {
+        this.tmpDir = tmpDir;
+        return this;
+    }
+
+    public File getTmpDir() {
+        return tmpDir;
+    }
+
+    public CompilerSettings installDir(File installDir) {
+        this.installDir = installDir;
+        return this;
+    }
+
+    public File getInstallDir() {
+        return installDir;
+    }
+
+    public CompilerSettings cacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+        return this;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public CompilerSettings mainClass(String mainClass) {
+        this.mainClass = mainClass;
+        return this;
+    }
+
+    public CompilerSettings debug(boolean debug, int debugPort) {
+        this.debug = debug;
+        this.debugPort = debugPort;
+        return this;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public CompilerSettings skipLinking(boolean skipLinking) {
+        this.skipLinking = skipLinking;
+        return this;
+    }
+
+    public boolean isSkipLinking() {
+        return skipLinking;
+    }
+
+    public CompilerSettings skipInstall(boolean skipInstall) {
+        this.skipInstall = skipInstall;
+        return this;
+    }
+
+    public CompilerSettings iosSkipSigning(boolean iosSkipSigning) {
+        this.iosSkipSigning = iosSkipSigning;
+        return this;
+    }
+
+    public CompilerSettings iosSignIdentity(String iosSignIdentity) {
+        this.iosSignIdentity = iosSignIdentity;
+        return this;
+    }
+
+    public CompilerSettings iosProvisioningProfile(String iosProvisioningProfile) {
+        this.iosProvisioningProfile = iosProvisioningProfile;
+        return this;
+    }
+
+    public CompilerSettings keychainPassword(String keychainPassword) {
+        this.keychainPassword = keychainPassword;
+        return this;
+    }
+
+    public CompilerSettings keychainPasswordFile(File keychainPasswordFile) {
+        this.keychainPasswordFile = keychainPasswordFile;
+        return this;
+    }
+
+    public CompilerSettings classpath(List<File> classpath) {
+        this.classpath = new ArrayList<>(classpath);
+        return this;
+    }
+
+    public List<File> getClasspath() {
+        return classpath;
+    }
+
+    public CompilerSettings os(OS os) {
+        this.os = os;
+        return this;
+    }
+
+    public OS getOs() {
+        return os;
+    }
+
+    public CompilerSettings arch(Arch arch) {
+        this.arch = arch;
+        return this;
+    }
+
+    public Arch getArch() {
+        return arch;
+    }
+
+    public CompilerSettings archs(List<Arch> archs) {
+        this.archs = archs != null ? new ArrayList<>(archs) : null;
+        return this;
+    }
+
+    public List<Arch> getArchs() {
+        return archs;
+    }
+
+    public CompilerSettings targetType(String targetType) {
+        this.targetType = targetType;
+        return this;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public CompilerSettings enableBitcode(Boolean enableBitcode) {
+        this.enableBitcode = enableBitcode;
+        return this;
+    }
+
+    /**
+     * Sets the {@link SigningLookup} to find the signing identity and
+     * provisioning profile with. Not serialized, a fresh lookup is used
+     * when none has been set.
+     */
+    public CompilerSettings signingLookup(SigningLookup signingLookup) {
+        this.signingLookup = signingLookup;
+        return this;
+    }
+
+    /**
+     * Sets the {@link ConfigFileCache} to read the properties and config
+     * files through. Not sent to the compiler daemon, which reads the files
+     * itself.
+     */
+    public CompilerSettings configFileCache(ConfigFileCache configFileCache) {
+        this.configFileCache = configFileCache;
+        return this;
+    }
+
+    /**
+     * Returns the settings which affect the linked executable as
+     * {@code name=value} strings for a {@link BuildOutputCache} key. Paths
+     * and signing settings are left out as they don't affect what the
+     * compiler produces, only where it goes and how it is installed.
+     */
+    public List<String> getCacheKeyInputs() {
+        List<String> inputs = new ArrayList<>();
+        inputs.add("os=" + os);
+        inputs.add("arch=" + arch);
+        inputs.add("archs=" + archs);
+        inputs.add("targetType=" + targetType);
+        inputs.add("mainClass=" + mainClass);
+        inputs.add("debug=" + debug + ":" + debugPort);
+        inputs.add("skipLinking=" + skipLinking);
+        inputs.add("enableBitcode=" + enableBitcode);
+        return inputs;
+    }
+
+    /**
+     * Returns the settings which affect the object files compiled from a
+     * classpath entry, apart from the OS, arch and debug mode, as
+     * {@code name=value} strings for a {@link RemoteObjectCache} key.
+     */
+    public List<String> getObjectCacheKeyInputs() {
+        List<String> inputs = new ArrayList<>();
+        inputs.add("targetType=" + targetType);
+        inputs.add("enableBitcode=" + enableBitcode);
+        return inputs;
+    }
+
+    /**
+     * Returns the files referenced from the config file which are linked
+     * into the executable: the static libraries and object files in
+     * {@code <libs>} and the directories in {@code <frameworkPaths>}, which
+     * hold the frameworks the app links against. Only files which exist are
+     * returned. {@code ${name}} references are replaced with the values from
+     * the properties files. Entries naming system libraries, e.g.
+     * {@code z}, aren't files and are covered by the config file itself.
+     */
+    public List<File> getLinkedFiles() throws IOException {
+        List<File> files = new ArrayList<>();
+        File file = getConfigFileOrDefault();
+        Element root = parseConfigFile(file);
+        if (root == null) {
+            return files;
+        }
+        File wd = file.getAbsoluteFile().getParentFile();
+        addLinkedFiles(root, "libs", "lib", wd, files);
+        addLinkedFiles(root, "frameworkPaths", "path", wd, files);
+        return files;
+    }
+
+    /**
+     * Returns the value of the specified top-level element of the config
+     * file, e.g. {@code executableName}, with {@code ${name}} references
+     * replaced, or {@code null} if the config file doesn't set it.
+     */
+    public String getConfigValue(String name) throws IOException {
+        Element root = parseConfigFile(getConfigFileOrDefault());
+        if (root == null) {
+            return null;
+        }
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element && ((Element) children.item(i)).getTagName().equals(name)) {
+                String value = children.item(i).getTextContent().trim();
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    private File getConfigFileOrDefault() {
+        return configFile != null ? configFile : new File(projectDir, "robovm.xml");
+    }
+
+    /**
+     * Returns the root element of the specified config file or {@code null}
+     * if it doesn't exist.
+     */
+    private Element parseConfigFile(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        String text = configFileCache != null ? configFileCache.getText(file)
+                : FileUtils.readFileToString(file, "UTF-8");
+        text = replaceProperties(text, loadProperties());
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(text))).getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse RoboVM config file " + file, e);
+        }
+    }
+
+    private static void addLinkedFiles(Element root, String listName, String itemName, File wd, List<File> files) {
+        NodeList lists = root.getElementsByTagName(listName);
+        for (int i = 0; i < lists.getLength(); i++) {
+            NodeList items = ((Element) lists.item(i)).getElementsByTagName(itemName);
+            for (int j = 0; j < items.getLength(); j++) {
+                String value = items.item(j).getTextContent().trim();
+                if (value.isEmpty()) {
+                    continue;
+                }
+                // Relative to the config file, like Config.Builder.read()
+                File f = new File(value).isAbsolute() ? new File(value) : new File(wd, value);
+                if (f.exists()) {
+                    files.add(f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the properties and config files the compiler reads with these
+     * settings, whether they exist or not.
+     */
+    public List<File> getConfigFiles() {
+        List<File> files = getPropertiesFiles();
+        files.add(getConfigFileOrDefault());
+        return files;
+    }
+
+    private List<File> getPropertiesFiles() {
+        List<File> files = new ArrayList<>();
+        if (propertiesFile != null) {
+            files.add(propertiesFile);
+        } else {
+            files.add(new File(projectDir, "robovm.properties"));
+            files.add(new File(projectDir, "robovm.local.properties"));
+        }
+        return files;
+    }
+
+    private Properties loadProperties() throws IOException {
+        Properties props = new Properties();
+        for (File file : getPropertiesFiles()) {
+            if (!file.exists()) {
+                continue;
+            }
+            if (configFileCache != null) {
+                props.putAll(configFileCache.getProperties(file));
+            } else {
+                try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+                    props.load(reader);
+                }
+            }
+        }
+        return props;
+    }
+
+    private static String replaceProperties(String text, Properties props) {
+        Matcher matcher = PROPERTY_REFERENCE.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            String value = props.getProperty(name, System.getProperty(name));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(value != null ? value : matcher.group()));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private void addProperties(Config.Builder builder, File file) throws IOException {
+        if (configFileCache != null) {
+            builder.addProperties(configFileCache.getProperties(file));
+        } else {
+            builder.addProperties(file);
+        }
+    }
+
+    private void read(Config.Builder builder, File file) throws Exception {
+        if (configFileCache != null) {
+            // Relative paths are resolved against the file's directory, just
+            // like Config.Builder.read(File) does
+            builder.read(new StringReader(configFileCache.getText(file)), file.getAbsoluteFile().getParentFile());
+        } else {
+            builder.read(file);
+        }
+    }
+
+    /**
+     * Applies these settings to the specified {@link Config.Builder}.
+     *
+     * @param metrics where to record the time spent looking up signing
+     *            identities or {@code null}.
+     */
+    public Config.Builder applyTo(Config.Builder builder, Logger logger, BuildMetrics metrics) {
+        builder.logger(logger);
+
+        if (propertiesFile != null) {
+            if (!propertiesFile.exists()) {
+                throw new GradleException("Invalid 'propertiesFile' specified for RoboVM compile: " + propertiesFile);
+            }
+            try {
+                logger.debug("Including properties file in RoboVM compiler config: " + propertiesFile.getAbsolutePath());
+                addProperties(builder, propertiesFile);
+            } catch (IOException e) {
+                throw new GradleException("Failed to add properties file to RoboVM config: " + propertiesFile);
+            }
+        } else {
+            try {
+                if (configFileCache != null) {
+                    // Same files as Config.Builder.readProjectProperties()
+                    for (String name : new String[] { "robovm.properties", "robovm.local.properties" }) {
+                        File file = new File(projectDir, name);
+                        if (file.exists()) {
+                            addProperties(builder, file);
+                        }
+                    }
+                } else {
+                    builder.readProjectProperties(projectDir, false);
+                }
+            } catch (IOException e) {
+                throw new GradleException(
+                        "Failed to read RoboVM project properties file(s) in "
+                                + projectDir.getAbsolutePath(), e);
+            }
+        }
+
+        if (configFile != null) {
+            if (!configFile.exists()) {
+                throw new GradleException("Invalid 'configFile' specified for RoboVM compile: " + configFile);
+            }
+            try {
+                logger.debug("Loading config file for RoboVM compiler: " + configFile.getAbsolutePath());
+                read(builder, configFile);
+            } catch (Exception e) {
+                throw new GradleException("Failed to read RoboVM config file: " + configFile);
+            }
+        } else {
+            try {
+                if (configFileCache != null) {
+                    // Same file as Config.Builder.readProjectConfig()
+                    File file = new File(projectDir, "robovm.xml");
+                    if (file.exists()) {
+                        read(builder, file);
+                    }
+                } else {
+                    builder.readProjectConfig(projectDir, false);
+                }
+            } catch (Exception e) {
+                throw new GradleException(
+                        "Failed to read project RoboVM config file in "
+                                + projectDir.getAbsolutePath(), e);
+            }
+        }
+
+        builder.home(new Config.Home(home))
+                .skipInstall(skipInstall)
+                .installDir(installDir)
+                .cacheDir(cacheDir);
+
+        if (tmpDir != null) {
+            builder.tmpDir(tmpDir);
+        }
+
+        if (mainClass != null) {
+            builder.mainClass(mainClass);
+        }
+
+        if (debug) {
+            builder.debug(true);
+            if (debugPort != -1) {
+                builder.addPluginArgument("debug:jdwpport=" + debugPort);
+            }
+        }
+
+        if (skipLinking) {
+            builder.skipLinking(true);
+        }
+
+        if (iosSkipSigning) {
+            builder.iosSkipSigning(true);
+        } else {
+            long signingStart = System.nanoTime();
+            SigningLookup lookup = signingLookup != null ? signingLookup : new SigningLookup(null);
+            lookup.prefetch(iosSignIdentity, iosProvisioningProfile);
+            if (iosSignIdentity != null) {
+                logger.debug("Using explicit iOS Signing identity: " + iosSignIdentity);
+                builder.iosSignIdentity(lookup.findIdentity(iosSignIdentity));
+            }
+
+            if (iosProvisioningProfile != null) {
+                logger.debug("Using explicit iOS provisioning profile: " + iosProvisioningProfile);
+                builder.iosProvisioningProfile(lookup.findProfile(iosProvisioningProfile));
+            }
+
+            if (keychainPassword != null) {
+                builder.keychainPassword(keychainPassword);
+            } else if (keychainPasswordFile != null) {
+                builder.keychainPasswordFile(keychainPasswordFile);
+            }
+            if (metrics != null) {
+                metrics.record("signing", signingStart);
+            }
+        }
+
+        builder.clearClasspathEntries();
+
+        for (File classpathEntry : classpath) {
+            logger.debug("Including classpath element for RoboVM app: " + classpathEntry.getAbsolutePath());
+            builder.addClasspathEntry(classpathEntry);
+        }
+
+        if (os != null) {
+            builder.os(os);
+        }
+        if (arch != null) {
+            builder.arch(arch);
+        }
+        if (archs != null) {
+            builder.archs(archs);
+        }
+        if (targetType != null) {
+            builder.targetType(targetType);
+        }
+        if (enableBitcode != null) {
+            builder.enableBitcode(enableBitcode);
+        }
+
+        return builder;
+    }
+}
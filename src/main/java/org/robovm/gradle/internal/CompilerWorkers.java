@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.util.BitSet;
+
+import org.gradle.api.Project;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+
+/**
+ * Build-wide pool of compiler worker slots. Every compilation, whether in
+ * the Gradle process or in a {@link CompilerDaemon}, holds a slot while it
+ * runs, which bounds the number of concurrent compilations when RoboVM
+ * tasks of several projects run in parallel. Each slot number maps to a
+ * daemon of its own so that concurrent compilations run in separate
+ * processes.
+ */
+public class CompilerWorkers {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.compilerWorkers";
+
+    private final int maxWorkers;
+    private final BitSet busy = new BitSet();
+
+    CompilerWorkers(int maxWorkers) {
+        this.maxWorkers = Math.max(1, maxWorkers);
+    }
+
+    /**
+     * Returns the pool of the build the specified project belongs to,
+     * creating it with room for {@code maxWorkers} concurrent compilations
+     * if this is the first request in the build.
+     */
+    public static CompilerWorkers get(Project project, int maxWorkers) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME)) {
+                Object workers = ext.get(EXTRA_PROPERTY_NAME);
+                if (workers instanceof CompilerWorkers) {
+                    return (CompilerWorkers) workers;
+                }
+                return new CompilerWorkers(maxWorkers);
+            }
+            CompilerWorkers workers = new CompilerWorkers(maxWorkers);
+            ext.set(EXTRA_PROPERTY_NAME, workers);
+            return workers;
+        }
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Waits for a free slot and returns its number.
+     */
+    public synchronized int acquire() throws InterruptedException {
+        while (busy.cardinality() >= maxWorkers) {
+            wait();
+        }
+        int slot = busy.nextClearBit(0);
+        busy.set(slot);
+        return slot;
+    }
+
+    public synchronized void release(int slot) {
+        busy.clear(slot);
+        notifyAll();
+    }
+}
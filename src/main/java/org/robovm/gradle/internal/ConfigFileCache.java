@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+
+/**
+ * Remembers the RoboVM properties and config files read during a build, so
+ * that tasks building the same app don't all read them from disk again.
+ * Files are read again when their size or modification time changed.
+ * Properties are handed out as copies. Config files are remembered as text
+ * only, as {@code Config.Builder} substitutes the properties it has been
+ * given while parsing them.
+ */
+public class ConfigFileCache {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.configFileCache";
+
+    private final Map<File, Entry<Properties>> properties = new HashMap<>();
+    private final Map<File, Entry<String>> texts = new HashMap<>();
+
+    private static class Entry<T> {
+        final long length;
+        final long lastModified;
+        final T value;
+
+        Entry(long length, long lastModified, T value) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+
+        boolean isCurrent(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Returns the {@link ConfigFileCache} of the build the specified project
+     * belongs to.
+     */
+    public static ConfigFileCache get(Project project) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME)) {
+                Object cache = ext.get(EXTRA_PROPERTY_NAME);
+                if (cache instanceof ConfigFileCache) {
+                    return (ConfigFileCache) cache;
+                }
+            }
+            ConfigFileCache cache = new ConfigFileCache();
+            ext.set(EXTRA_PROPERTY_NAME, cache);
+            return cache;
+        }
+    }
+
+    /**
+     * Returns a copy of the properties in the specified file, read as UTF-8
+     * like {@code Config.Builder.addProperties(File)} does.
+     */
+    public Properties getProperties(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        Entry<Properties> entry;
+        synchronized (properties) {
+            entry = properties.get(key);
+        }
+        if (entry == null || !entry.isCurrent(key)) {
+            long length = key.length();
+            long lastModified = key.lastModified();
+            Properties props = new Properties();
+            try (Reader reader = new InputStreamReader(new FileInputStream(key), "UTF-8")) {
+                props.load(reader);
+            }
+            entry = new Entry<>(length, lastModified, props);
+            synchronized (properties) {
+                properties.put(key, entry);
+            }
+        }
+        Properties copy = new Properties();
+        copy.putAll(entry.value);
+        return copy;
+    }
+
+    /**
+     * Returns the contents of the specified config file.
+     */
+    public String getText(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        Entry<String> entry;
+        synchronized (texts) {
+            entry = texts.get(key);
+        }
+        if (entry == null || !entry.isCurrent(key)) {
+            long length = key.length();
+            long lastModified = key.lastModified();
+            entry = new Entry<>(length, lastModified, FileUtils.readFileToString(key, "UTF-8"));
+            synchronized (texts) {
+                texts.put(key, entry);
+            }
+        }
+        return entry.value;
+    }
+}
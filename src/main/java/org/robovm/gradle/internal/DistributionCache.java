@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Content addressed cache of unpacked RoboVM distributions. Each
+ * distribution archive is unpacked into a directory named after the SHA-1 of
+ * the archive, so a SNAPSHOT archive is only unpacked again when its bytes
+ * actually changed. Archives are unpacked into a temporary directory which
+ * is renamed into place once complete, which makes it safe for several
+ * builds to share the same cache. Checking whether a distribution has been
+ * unpacked, marking it as used and pruning unused ones happen under a lock
+ * on {@code <cacheDir>/.lock}, so a build never has the distribution it just
+ * found removed by another build's pruning.
+ */
+public class DistributionCache {
+
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final long MAX_UNUSED_AGE = 30L * 24 * 60 * 60 * 1000;
+    /**
+     * Temporary files and directories older than this were left behind by
+     * killed builds. No extraction takes this long.
+     */
+    private static final long MAX_TMP_AGE = 24L * 60 * 60 * 1000;
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    private static final Object LOCK = new Object();
+
+    private final File cacheDir;
+    private final Logger logger;
+
+    public DistributionCache(File cacheDir, Logger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the {@code robovm-<version>} directory of the unpacked
+     * distribution, unpacking the specified archive first if it hasn't
+     * been unpacked before.
+     */
+    public File unpack(File distTarFile, String version) throws IOException {
+        String checksum = checksum(distTarFile);
+        File entryDir = new File(cacheDir, checksum);
+        File marker = new File(entryDir, COMPLETE_MARKER);
+
+        boolean unpacked;
+        synchronized (LOCK) {
+            try (FileChannel channel = openLock(); FileLock lock = channel.lock()) {
+                unpacked = marker.exists();
+                if (unpacked) {
+                    FileUtils.touch(marker);
+                } else if (entryDir.exists()) {
+                    // Unpacking is published atomically so this is most
+                    // likely something copied in by hand. Start over.
+                    FileUtils.deleteDirectory(entryDir);
+                }
+            }
+        }
+        if (unpacked) {
+            logger.debug("Archive '" + distTarFile + "' was already unpacked in: " + entryDir);
+        } else {
+            unpackAtomically(distTarFile, version, entryDir);
+        }
+
+        List<File> unused;
+        synchronized (LOCK) {
+            try (FileChannel channel = openLock(); FileLock lock = channel.lock()) {
+                FileUtils.touch(marker);
+                unused = prune(entryDir);
+            }
+        }
+        for (File dir : unused) {
+            FileUtils.deleteQuietly(dir);
+        }
+
+        return new File(entryDir, "robovm-" + version);
+    }
+
+    private FileChannel openLock() throws IOException {
+        cacheDir.mkdirs();
+        return new RandomAccessFile(new File(cacheDir, LOCK_FILE_NAME), "rw").getChannel();
+    }
+
+    private void unpackAtomically(File distTarFile, String version, File entryDir) throws IOException {
+        File tmpDir = new File(cacheDir, entryDir.getName() + ".tmp-" + UUID.randomUUID());
+        logger.info("Extracting '" + distTarFile + "' to: " + entryDir);
+
+        if (!tmpDir.mkdirs()) {
+            throw new IOException("Unable to create base directory to unpack into: " + tmpDir);
+        }
+
+        try {
+            new TarGzExtractor().extract(distTarFile, tmpDir);
+
+            File unpackedDistDirectory = new File(tmpDir, "robovm-" + version);
+            if (!unpackedDistDirectory.exists()) {
+                throw new IOException("Unable to unpack archive");
+            }
+            File[] binFiles = new File(unpackedDistDirectory, "bin").listFiles();
+            if (binFiles != null) {
+                for (File f : binFiles) {
+                    f.setExecutable(true, false);
+                }
+            }
+            FileUtils.touch(new File(tmpDir, COMPLETE_MARKER));
+
+            try {
+                Files.move(tmpDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+                if (!new File(entryDir, COMPLETE_MARKER).exists()) {
+                    throw e;
+                }
+                // Another build unpacked the same archive concurrently
+                logger.debug("Archive '" + distTarFile + "' was unpacked concurrently in: " + entryDir);
+            } catch (IOException e) {
+                // Some file systems report a non-empty target directory this way
+                if (!new File(entryDir, COMPLETE_MARKER).exists()) {
+                    throw e;
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(tmpDir);
+        }
+
+        logger.debug("Archive '" + distTarFile + "' unpacked to: " + entryDir);
+    }
+
+    /**
+     * Removes what killed builds left behind and moves unpacked
+     * distributions which haven't been used for a while, e.g. older SNAPSHOT
+     * builds, out of the way. Must be called with the lock held.
+     *
+     * @return the directories the unused distributions were moved to, to be
+     *         deleted once the lock has been released.
+     */
+    private List<File> prune(File current) {
+        List<File> unused = new ArrayList<>();
+        File[] children = cacheDir.listFiles();
+        if (children == null) {
+            return unused;
+        }
+        long now = System.currentTimeMillis();
+        for (File child : children) {
+            if (child.getName().contains(".tmp-")) {
+                if (now - child.lastModified() > MAX_TMP_AGE) {
+                    logger.debug("Removing abandoned temporary file " + child);
+                    FileUtils.deleteQuietly(child);
+                }
+                continue;
+            }
+            File marker = new File(child, COMPLETE_MARKER);
+            if (!child.equals(current) && child.isDirectory() && marker.exists()
+                    && now - marker.lastModified() > MAX_UNUSED_AGE) {
+                logger.debug("Removing unused RoboVM distribution " + child);
+                File trash = new File(cacheDir, child.getName() + ".tmp-" + UUID.randomUUID());
+                if (child.renameTo(trash)) {
+                    unused.add(trash);
+                }
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Returns the SHA-1 of the specified file. The checksum is remembered
+     * together with the file's size and modification time so the archive
+     * doesn't have to be read again unless it changed.
+     */
+    private String checksum(File file) throws IOException {
+        File checksumFile = new File(cacheDir, file.getName() + ".sha1");
+        String stamp = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+
+        Properties props = new Properties();
+        if (checksumFile.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(checksumFile);
+                props.load(in);
+            } catch (IOException e) {
+                logger.debug("Ignoring unreadable checksum file " + checksumFile);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            if (stamp.equals(props.getProperty("stamp")) && props.getProperty("sha1") != null) {
+                return props.getProperty("sha1");
+            }
+        }
+
+        String checksum = sha1(file);
+
+        props.setProperty("stamp", stamp);
+        props.setProperty("sha1", checksum);
+        cacheDir.mkdirs();
+        File tmpFile = new File(cacheDir, checksumFile.getName() + ".tmp-" + UUID.randomUUID());
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            props.store(out, null);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        Files.move(tmpFile.toPath(), checksumFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        return checksum;
+    }
+
+    static String sha1(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
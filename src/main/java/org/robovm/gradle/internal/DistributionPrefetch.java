@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.sonatype.aether.artifact.Artifact;
+
+/**
+ * Resolves and unpacks the RoboVM distribution at most once per build, in
+ * the background if {@link #start()} is called early enough, e.g. while
+ * the Java sources are being compiled. RoboVM tasks then only wait for it
+ * to complete.
+ */
+public class DistributionPrefetch {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.distributionPrefetches";
+
+    private final Project project;
+    private final String version;
+    private final List<String> repositories;
+    private final String mirror;
+    private final boolean offline;
+    private final Logger logger = Logging.getLogger(DistributionPrefetch.class);
+    private Future<File> result;
+
+    private DistributionPrefetch(Project project, String version, List<String> repositories, String mirror,
+            boolean offline) {
+        this.project = project;
+        this.version = version;
+        this.repositories = repositories;
+        this.mirror = mirror;
+        this.offline = offline;
+    }
+
+    /**
+     * Returns the {@link DistributionPrefetch} of the build the specified
+     * project belongs to for the specified version and repositories.
+     */
+    @SuppressWarnings("unchecked")
+    public static DistributionPrefetch get(Project project, String version, List<String> repositories,
+            String mirror, boolean offline) {
+
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            Map<String, DistributionPrefetch> prefetches;
+            if (ext.has(EXTRA_PROPERTY_NAME) && ext.get(EXTRA_PROPERTY_NAME) instanceof Map) {
+                prefetches = (Map<String, DistributionPrefetch>) ext.get(EXTRA_PROPERTY_NAME);
+            } else {
+                prefetches = new HashMap<>();
+                ext.set(EXTRA_PROPERTY_NAME, prefetches);
+            }
+            String id = version + "|" + repositories + "|" + mirror + "|" + offline;
+            DistributionPrefetch prefetch = prefetches.get(id);
+            if (prefetch == null) {
+                prefetch = new DistributionPrefetch(project, version, repositories, mirror, offline);
+                prefetches.put(id, prefetch);
+            }
+            return prefetch;
+        }
+    }
+
+    /**
+     * Starts resolving and unpacking the distribution in the background
+     * unless that has been started before.
+     */
+    public synchronized void start() {
+        if (result != null) {
+            return;
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RoboVM distribution prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        result = executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                try {
+                    return unpack();
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the directory of the unpacked distribution, resolving and
+     * unpacking it first if that hasn't been started yet, and otherwise
+     * waiting for it to complete.
+     */
+    public File await() throws GradleException {
+        Future<File> future;
+        synchronized (this) {
+            start();
+            future = result;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for the RoboVM distribution", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GradleException) {
+                throw (GradleException) e.getCause();
+            }
+            throw new GradleException("Couldn't extract distribution tar.gz", e.getCause());
+        }
+    }
+
+    private File unpack() throws IOException {
+        long start = System.nanoTime();
+        Artifact artifact = ArtifactResolver.get(project).resolveArtifact(
+                "org.robovm:robovm-dist:tar.gz:nocompiler:" + version, repositories, mirror, offline, logger);
+        logger.info("Resolved RoboVM distribution in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        start = System.nanoTime();
+        File home = new DistributionCache(new RoboVMCaches(project.getGradle().getGradleUserHomeDir()).getDistsDir(),
+                logger).unpack(artifact.getFile(), version);
+        logger.info("Unpacked RoboVM distribution in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return home;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import org.robovm.compiler.log.Logger;
+
+/**
+ * Forwards RoboVM compiler log messages to a Gradle logger. Messages are
+ * only formatted if the Gradle logger has the level enabled or if a
+ * {@link StructuredLogSink} wants them.
+ */
+public class GradleLoggerBridge implements Logger {
+
+    private final org.gradle.api.logging.Logger logger;
+    private final StructuredLogSink sink;
+
+    /**
+     * @param logger the Gradle logger to forward to.
+     * @param sink where to write machine-readable log events or {@code null}.
+     */
+    public GradleLoggerBridge(org.gradle.api.logging.Logger logger, StructuredLogSink sink) {
+        this.logger = logger;
+        this.sink = sink;
+    }
+
+    @Override
+    public void debug(String s, Object... objects) {
+        boolean enabled = logger.isDebugEnabled();
+        if (enabled || sink != null) {
+            String message = format(s, objects);
+            if (enabled) {
+                logger.debug(message);
+            }
+            if (sink != null) {
+                sink.log("debug", message);
+            }
+        }
+    }
+
+    @Override
+    public void info(String s, Object... objects) {
+        boolean enabled = logger.isInfoEnabled();
+        if (enabled || sink != null) {
+            String message = format(s, objects);
+            if (enabled) {
+                logger.info(message);
+            }
+            if (sink != null) {
+                sink.log("info", message);
+            }
+        }
+    }
+
+    @Override
+    public void warn(String s, Object... objects) {
+        String message = format(s, objects);
+        logger.warn(message);
+        if (sink != null) {
+            sink.log("warn", message);
+        }
+    }
+
+    @Override
+    public void error(String s, Object... objects) {
+        String message = format(s, objects);
+        logger.error(message);
+        if (sink != null) {
+            sink.log("error", message);
+        }
+    }
+
+    private static String format(String s, Object... objects) {
+        // Also without arguments, so that e.g. %% is unescaped
+        return String.format(s, objects);
+    }
+}
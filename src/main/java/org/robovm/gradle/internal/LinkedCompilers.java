@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gradle.api.Project;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.robovm.compiler.AppCompiler;
+
+/**
+ * Hands the {@link AppCompiler} which linked an app over to the task which
+ * installs or archives it, so both happen on the same compiler just like
+ * {@code build()} followed by {@code install()} or {@code archive()} in a
+ * single task. Compilers are stored by work directory for the rest of the
+ * build and taken out by the task which uses them.
+ */
+public class LinkedCompilers {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.linkedCompilers";
+
+    private final Map<File, AppCompiler> compilers = new HashMap<>();
+
+    LinkedCompilers() {
+    }
+
+    /**
+     * Returns the instance of the build the specified project belongs to.
+     */
+    public static LinkedCompilers get(Project project) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME)) {
+                Object compilers = ext.get(EXTRA_PROPERTY_NAME);
+                if (compilers instanceof LinkedCompilers) {
+                    return (LinkedCompilers) compilers;
+                }
+                // Loaded by another buildscript class loader. Don't share.
+                return new LinkedCompilers();
+            }
+            LinkedCompilers compilers = new LinkedCompilers();
+            ext.set(EXTRA_PROPERTY_NAME, compilers);
+            return compilers;
+        }
+    }
+
+    public synchronized void put(File workDir, AppCompiler compiler) {
+        compilers.put(workDir.getAbsoluteFile(), compiler);
+    }
+
+    /**
+     * Removes and returns the compiler which linked the app in the specified
+     * work directory during this build or {@code null} if there is none,
+     * e.g. because the link stage was up-to-date.
+     */
+    public synchronized AppCompiler take(File workDir) {
+        return compilers.remove(workDir.getAbsoluteFile());
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.robovm.compiler.target.ios.ProvisioningProfile;
+
+/**
+ * Index of the provisioning profiles installed in a directory. The fields
+ * profiles are looked up by are stored together with each profile file's
+ * size and modification time, so a profile is only parsed again when one
+ * of those changed. Profiles which have been removed are dropped from the
+ * index.
+ */
+public class ProvisioningProfileIndex {
+
+    /**
+     * The directory Xcode installs provisioning profiles to.
+     */
+    public static final File DEFAULT_PROFILES_DIR = new File(System.getProperty("user.home"),
+            "Library/MobileDevice/Provisioning Profiles");
+
+    /**
+     * Extracts the fields of a provisioning profile which are indexed.
+     */
+    public interface Parser {
+        Entry parse(File file) throws Exception;
+    }
+
+    /**
+     * Parses profiles using {@link ProvisioningProfile#create(File)}.
+     */
+    public static final Parser ROBOVM_PARSER = new Parser() {
+        @Override
+        public Entry parse(File file) {
+            ProvisioningProfile profile = ProvisioningProfile.create(file);
+            return new Entry(profile.getUuid(), profile.getName(), profile.getAppIdPrefix(), profile.getAppIdName(),
+                    profile.getType(), profile.getExpirationDate());
+        }
+    };
+
+    public static class Entry {
+        private final String uuid;
+        private final String name;
+        private final String appIdPrefix;
+        private final String appIdName;
+        private final ProvisioningProfile.Type type;
+        private final Date expirationDate;
+
+        public Entry(String uuid, String name, String appIdPrefix, String appIdName,
+                ProvisioningProfile.Type type, Date expirationDate) {
+            this.uuid = uuid;
+            this.name = name;
+            this.appIdPrefix = appIdPrefix;
+            this.appIdName = appIdName;
+            this.type = type;
+            this.expirationDate = expirationDate;
+        }
+
+        /**
+         * Returns whether a lookup for the specified string could return
+         * this profile.
+         */
+        boolean matches(String search) {
+            return search.equals(uuid) || search.equals(name) || search.equals(appIdName)
+                    || search.equals(appIdPrefix);
+        }
+    }
+
+    private static final String SEPARATOR = "\t";
+
+    private final File indexFile;
+    private final File profilesDir;
+    private final Parser parser;
+    private final Logger logger;
+    private final Properties index = new Properties();
+    private boolean dirty;
+    private int parsed;
+
+    public ProvisioningProfileIndex(File indexFile, File profilesDir, Parser parser, Logger logger) {
+        this.indexFile = indexFile;
+        this.profilesDir = profilesDir;
+        this.parser = parser;
+        this.logger = logger;
+        if (indexFile.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(indexFile);
+                index.load(in);
+            } catch (IOException e) {
+                logger.debug("Ignoring unreadable provisioning profile index " + indexFile);
+                index.clear();
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Returns the profile files which might match the specified lookup
+     * string, i.e. the profiles whose UUID, name or app id equals it.
+     * Expired profiles are left out and the rest are ordered like
+     * {@link ProvisioningProfile#list()} orders them, so passing the
+     * candidates to {@link ProvisioningProfile#find(List, String)} picks
+     * the same profile as looking through all of them would.
+     */
+    public synchronized List<File> findCandidates(String search) throws IOException {
+        refresh();
+        List<String> fileNames = new ArrayList<>(index.stringPropertyNames());
+        Collections.sort(fileNames);
+        Date now = new Date();
+        final Map<String, Entry> matches = new HashMap<>();
+        List<String> candidateNames = new ArrayList<>();
+        for (String fileName : fileNames) {
+            Entry entry = decode(index.getProperty(fileName));
+            if (entry != null && entry.matches(search) && entry.expirationDate.after(now)) {
+                matches.put(fileName, entry);
+                candidateNames.add(fileName);
+            }
+        }
+        Collections.sort(candidateNames, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return matches.get(o1).type.compareTo(matches.get(o2).type);
+            }
+        });
+        List<File> candidates = new ArrayList<>();
+        for (String fileName : candidateNames) {
+            candidates.add(new File(profilesDir, fileName));
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the number of profiles parsed since this index was loaded.
+     */
+    public synchronized int getParsedCount() {
+        return parsed;
+    }
+
+    private void refresh() throws IOException {
+        File[] files = profilesDir.listFiles();
+        Set<String> present = new HashSet<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.isFile() || !file.getName().endsWith(".mobileprovision")) {
+                    continue;
+                }
+                present.add(file.getName());
+                String stamp = file.length() + ":" + file.lastModified();
+                String value = index.getProperty(file.getName());
+                if (value != null && value.startsWith(stamp + SEPARATOR) && decode(value) != null) {
+                    continue;
+                }
+                try {
+                    Entry entry = parser.parse(file);
+                    parsed++;
+                    index.setProperty(file.getName(), stamp + SEPARATOR + encode(entry));
+                } catch (Exception e) {
+                    logger.debug("Ignoring unparseable provisioning profile " + file + ": " + e);
+                    index.remove(file.getName());
+                }
+                dirty = true;
+            }
+        }
+        for (String fileName : index.stringPropertyNames()) {
+            if (!present.contains(fileName)) {
+                index.remove(fileName);
+                dirty = true;
+            }
+        }
+        save();
+    }
+
+    private void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        indexFile.getParentFile().mkdirs();
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp-" + UUID.randomUUID());
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            index.store(out, "RoboVM provisioning profiles");
+            out.close();
+            out = null;
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } finally {
+            IOUtils.closeQuietly(out);
+            tmpFile.delete();
+        }
+    }
+
+    private static String encode(Entry entry) {
+        return nullToEmpty(entry.uuid) + SEPARATOR + nullToEmpty(entry.name) + SEPARATOR
+                + nullToEmpty(entry.appIdPrefix) + SEPARATOR + nullToEmpty(entry.appIdName) + SEPARATOR
+                + entry.type.name() + SEPARATOR + entry.expirationDate.getTime();
+    }
+
+    /**
+     * Returns {@code null} if the value can't be decoded, e.g. because it
+     * was written by a version which indexed fewer fields.
+     */
+    private static Entry decode(String value) {
+        String[] parts = value.split(SEPARATOR, -1);
+        if (parts.length != 7) {
+            return null;
+        }
+        try {
+            return new Entry(parts[1], parts[2], parts[3], parts[4], ProvisioningProfile.Type.valueOf(parts[5]),
+                    new Date(Long.parseLong(parts[6])));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s != null ? s.replace(SEPARATOR, " ") : "";
+    }
+}
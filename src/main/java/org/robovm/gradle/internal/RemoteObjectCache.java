@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.OS;
+
+/**
+ * Shares the entries of the compiler's cache directory, the object files
+ * compiled from one JAR for one OS, arch and mode, through an HTTP server
+ * which supports {@code GET} and {@code PUT}. Entries are stored as zip
+ * files named after a hash of the RoboVM version, OS, arch, mode, the
+ * settings which affect code generation, the contents of the JAR and the
+ * contents of the other JARs on the classpath, which the JAR's classes are
+ * compiled against. Agents with different paths share them. Missing
+ * entries are downloaded concurrently before compiling, and entries which
+ * had to be compiled are uploaded in the background while the build goes
+ * on. The build doesn't finish before the uploads have.
+ */
+public class RemoteObjectCache {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.remoteObjectCaches";
+    private static final String TMP_PREFIX = ".remote-";
+    static final int THREADS = 4;
+
+    private final File cacheDir;
+    private final BuildOutputCache transport;
+    private final boolean push;
+    private final Logger logger;
+    // Separate pools so that downloads never queue behind uploads waiting
+    // for a lock held by the build which is downloading
+    private final ExecutorService downloadExecutor = Executors.newFixedThreadPool(THREADS, threadFactory("download"));
+    private final ExecutorService uploadExecutor = Executors.newFixedThreadPool(THREADS, threadFactory("upload"));
+    private final List<Future<?>> uploads = new ArrayList<>();
+
+    public RemoteObjectCache(File cacheDir, String url, boolean push, Logger logger) {
+        this.cacheDir = cacheDir;
+        // Zips are only staged locally on their way to or from the server
+        this.transport = new BuildOutputCache(new File(cacheDir, TMP_PREFIX + "zips"), url, push, logger);
+        this.push = push;
+        this.logger = logger;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RoboVM remote object cache " + name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link RemoteObjectCache} of the build the specified
+     * project belongs to for the specified cache directory and URL. Builds
+     * wait for its uploads to complete before they finish.
+     */
+    @SuppressWarnings("unchecked")
+    public static RemoteObjectCache get(Project project, File cacheDir, String url, boolean push) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            Map<String, RemoteObjectCache> caches;
+            if (ext.has(EXTRA_PROPERTY_NAME) && ext.get(EXTRA_PROPERTY_NAME) instanceof Map) {
+                caches = (Map<String, RemoteObjectCache>) ext.get(EXTRA_PROPERTY_NAME);
+            } else {
+                caches = new HashMap<>();
+                ext.set(EXTRA_PROPERTY_NAME, caches);
+            }
+            String id = cacheDir.getAbsolutePath() + "|" + url + "|" + push;
+            RemoteObjectCache cache = caches.get(id);
+            if (cache == null) {
+                final RemoteObjectCache c = new RemoteObjectCache(cacheDir, url, push,
+                        Logging.getLogger(RemoteObjectCache.class));
+                project.getGradle().addBuildListener(new BuildAdapter() {
+                    @Override
+                    public void buildFinished(BuildResult result) {
+                        c.awaitUploads();
+                        c.downloadExecutor.shutdown();
+                        c.uploadExecutor.shutdown();
+                    }
+                });
+                caches.put(id, c);
+                cache = c;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Returns the key of the entry compiled from a JAR with the specified
+     * content hash. {@code settings} are the other settings affecting the
+     * object files, e.g. whether bitcode is enabled, and
+     * {@code classpathHash} identifies the contents of the classpath the JAR
+     * is compiled against.
+     */
+    public static String key(String version, OS os, Arch arch, boolean debug, List<String> settings,
+            String classpathHash, String jarHash) {
+
+        List<String> inputs = new ArrayList<>();
+        inputs.add("version=" + version);
+        inputs.add("os=" + os);
+        inputs.add("arch=" + arch);
+        inputs.add("debug=" + debug);
+        inputs.addAll(settings);
+        inputs.add("classpath=" + classpathHash);
+        inputs.add("jar=" + jarHash);
+        return BuildOutputCache.key(inputs);
+    }
+
+    /**
+     * Downloads the specified entries, given as paths relative to the cache
+     * directory mapped to their keys, which don't exist locally. The caller
+     * must hold exclusive {@link CacheLocks} on the entries. The files
+     * restored are given the specified modification time, that of the
+     * newest JAR the keys were computed from, as the compiler recompiles
+     * classes whose object files are older than the JARs they depend on.
+     *
+     * @return the paths of the entries which neither exist locally nor
+     *         remotely.
+     */
+    public Set<String> prefetch(Map<String, String> entries, final long lastModified) {
+        Map<String, Future<Boolean>> downloads = new HashMap<>();
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            if (new File(cacheDir, entry.getKey()).exists()) {
+                continue;
+            }
+            downloads.put(entry.getKey(), downloadExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return download(entry.getKey(), entry.getValue(), lastModified);
+                }
+            }));
+        }
+
+        Set<String> misses = new HashSet<>();
+        int hits = 0;
+        for (Map.Entry<String, Future<Boolean>> download : downloads.entrySet()) {
+            boolean hit = false;
+            try {
+                hit = download.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // An unreachable or broken cache shouldn't fail the build
+                logger.warn("Failed to download RoboVM cache entry " + download.getKey() + ": " + e.getCause());
+            }
+            if (hit) {
+                hits++;
+            } else {
+                misses.add(download.getKey());
+            }
+        }
+        if (!downloads.isEmpty()) {
+            logger.info("Downloaded " + hits + " of " + downloads.size() + " missing RoboVM cache entries");
+        }
+        return misses;
+    }
+
+    private boolean download(String path, String key, long lastModified) throws IOException {
+        File tmpDir = new File(cacheDir, TMP_PREFIX + UUID.randomUUID());
+        try {
+            if (!transport.load(key, tmpDir)) {
+                return false;
+            }
+            for (File file : FileUtils.listFiles(tmpDir, null, true)) {
+                file.setLastModified(lastModified);
+            }
+            File dir = new File(cacheDir, path);
+            dir.getParentFile().mkdirs();
+            Files.move(tmpDir.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            transport.removeLocal(key);
+            FileUtils.deleteQuietly(tmpDir);
+        }
+    }
+
+    /**
+     * Uploads the specified entries, given as paths relative to the cache
+     * directory mapped to their keys, in the background unless uploads are
+     * disabled. Each upload holds a shared {@link CacheLocks} lock on its
+     * entry while zipping it.
+     */
+    public void uploadAsync(Map<String, String> entries) {
+        if (!push) {
+            return;
+        }
+        synchronized (uploads) {
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                uploads.add(uploadExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        upload(entry.getKey(), entry.getValue());
+                        return null;
+                    }
+                }));
+            }
+        }
+    }
+
+    private void upload(String path, String key) throws IOException {
+        try (CacheLocks.Handle lock = CacheLocks.get(cacheDir).lock(Collections.singletonList(path), true, logger)) {
+            File dir = new File(cacheDir, path);
+            if (!dir.isDirectory()) {
+                return;
+            }
+            List<String> files = new ArrayList<>();
+            String base = dir.getAbsolutePath() + File.separator;
+            for (File file : FileUtils.listFiles(dir, null, true)) {
+                files.add(file.getAbsolutePath().substring(base.length()));
+            }
+            if (files.isEmpty()) {
+                return;
+            }
+            transport.store(key, dir, files);
+        } finally {
+            transport.removeLocal(key);
+        }
+    }
+
+    /**
+     * Waits for all uploads scheduled so far to complete.
+     */
+    public void awaitUploads() {
+        List<Future<?>> pending;
+        synchronized (uploads) {
+            pending = new ArrayList<>(uploads);
+            uploads.clear();
+        }
+        if (!pending.isEmpty()) {
+            logger.lifecycle("Waiting for " + pending.size() + " RoboVM cache uploads to complete");
+        }
+        for (Future<?> upload : pending) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.warn("Failed to upload RoboVM cache entry: " + e.getCause());
+            }
+        }
+    }
+}
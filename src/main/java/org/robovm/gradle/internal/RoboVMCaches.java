@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * Locations of the caches the plugin shares between builds, all below
+ * {@code caches/robovm} in the Gradle user home. This is a plain value so
+ * that code running outside of a task, like the {@link CompilerDaemon}, can
+ * be handed the locations without access to the {@code Project}.
+ */
+public class RoboVMCaches implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File root;
+
+    public RoboVMCaches(File gradleUserHomeDir) {
+        this.root = new File(gradleUserHomeDir, "caches/robovm");
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns where unpacked RoboVM distributions are kept, see
+     * {@link DistributionCache}.
+     */
+    public File getDistsDir() {
+        return new File(root, "dists");
+    }
+
+    /**
+     * Returns where classpath JARs are staged by content hash, see
+     * {@link ClasspathFingerprints}.
+     */
+    public File getClasspathDir() {
+        return new File(root, "classpath");
+    }
+
+    /**
+     * Returns the default location of the local {@link BuildOutputCache}.
+     */
+    public File getBuildCacheDir() {
+        return new File(root, "build-cache");
+    }
+
+    /**
+     * Returns the state directory of the {@link CompilerDaemon} for the
+     * specified RoboVM version and worker slot.
+     */
+    public File getDaemonDir(String version, int worker) {
+        return new File(root, "daemon/" + version + "/worker-" + worker);
+    }
+
+    /**
+     * Returns the index of resolved artifacts kept by {@link ArtifactResolver}.
+     */
+    public File getArtifactIndexFile() {
+        return new File(root, "artifacts.properties");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.robovm.compiler.target.ios.ProvisioningProfile;
+import org.robovm.compiler.target.ios.SigningIdentity;
+
+/**
+ * Looks up signing identities and provisioning profiles in the background
+ * and remembers the results for the rest of the build. Identities are
+ * listed at most once per build. Profiles are found through a
+ * {@link ProvisioningProfileIndex}, so only the candidate profiles are
+ * parsed, and the full list of profiles is only parsed if the index has no
+ * candidate.
+ */
+public class SigningLookup {
+
+    private static final String EXTRA_PROPERTY_NAME = "robovm.signingLookup";
+
+    private final ProvisioningProfileIndex profileIndex;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "RoboVM signing lookup");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private Future<List<SigningIdentity>> identities;
+    private final Map<String, Future<ProvisioningProfile>> profiles = new HashMap<>();
+
+    /**
+     * @param profileIndex the index to find profiles through or
+     *            {@code null} to parse all profiles for every lookup.
+     */
+    public SigningLookup(ProvisioningProfileIndex profileIndex) {
+        this.profileIndex = profileIndex;
+    }
+
+    /**
+     * Returns the {@link SigningLookup} of the build the specified project
+     * belongs to.
+     */
+    public static SigningLookup get(Project project) {
+        Project rootProject = project.getRootProject();
+        ExtraPropertiesExtension ext = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProject) {
+            if (ext.has(EXTRA_PROPERTY_NAME)) {
+                Object lookup = ext.get(EXTRA_PROPERTY_NAME);
+                if (lookup instanceof SigningLookup) {
+                    return (SigningLookup) lookup;
+                }
+            }
+            File indexFile = new File(new RoboVMCaches(project.getGradle().getGradleUserHomeDir()).getRoot(),
+                    "profiles.properties");
+            SigningLookup lookup = new SigningLookup(new ProvisioningProfileIndex(indexFile,
+                    ProvisioningProfileIndex.DEFAULT_PROFILES_DIR, ProvisioningProfileIndex.ROBOVM_PARSER,
+                    Logging.getLogger(SigningLookup.class)));
+            ext.set(EXTRA_PROPERTY_NAME, lookup);
+            return lookup;
+        }
+    }
+
+    /**
+     * Starts looking up the specified identity and profile, either of which
+     * may be {@code null}, unless that has been done before.
+     */
+    public synchronized void prefetch(String signIdentity, String provisioningProfile) {
+        if (signIdentity != null) {
+            identities();
+        }
+        if (provisioningProfile != null) {
+            profile(provisioningProfile);
+        }
+    }
+
+    public SigningIdentity findIdentity(String search) {
+        return SigningIdentity.find(get(identities()), search);
+    }
+
+    public ProvisioningProfile findProfile(String search) {
+        return get(profile(search));
+    }
+
+    private synchronized Future<List<SigningIdentity>> identities() {
+        if (identities == null) {
+            identities = executor.submit(new Callable<List<SigningIdentity>>() {
+                @Override
+                public List<SigningIdentity> call() {
+                    return SigningIdentity.list();
+                }
+            });
+        }
+        return identities;
+    }
+
+    private synchronized Future<ProvisioningProfile> profile(final String search) {
+        Future<ProvisioningProfile> profile = profiles.get(search);
+        if (profile == null) {
+            profile = executor.submit(new Callable<ProvisioningProfile>() {
+                @Override
+                public ProvisioningProfile call() throws IOException {
+                    return lookupProfile(search);
+                }
+            });
+            profiles.put(search, profile);
+        }
+        return profile;
+    }
+
+    private ProvisioningProfile lookupProfile(String search) throws IOException {
+        if (profileIndex != null) {
+            // Already filtered and ordered like ProvisioningProfile.list()
+            List<ProvisioningProfile> candidates = new ArrayList<>();
+            for (File file : profileIndex.findCandidates(search)) {
+                candidates.add(ProvisioningProfile.create(file));
+            }
+            if (!candidates.isEmpty()) {
+                try {
+                    return ProvisioningProfile.find(candidates, search);
+                } catch (IllegalArgumentException e) {
+                    // Not matched the way the index expected, fall back
+                }
+            }
+        }
+        return ProvisioningProfile.find(ProvisioningProfile.list(), search);
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while looking up signing settings", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new GradleException("Failed to look up signing settings", e.getCause());
+        }
+    }
+}
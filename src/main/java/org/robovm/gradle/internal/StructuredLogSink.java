@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Appends log events to a file as JSON objects, one per line, e.g.
+ * <pre>
+ * {"time":1438072968000,"task":"robovmInstall","level":"info","message":"..."}
+ * </pre>
+ * Events are buffered and written in chunks which always end on a line
+ * boundary. Since the file is opened in append mode several tasks can
+ * share the same file without corrupting each other's lines.
+ */
+public class StructuredLogSink implements Closeable {
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String taskName;
+    private final OutputStream out;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public StructuredLogSink(File file, String taskName) throws IOException {
+        this.taskName = taskName;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.out = new FileOutputStream(file, true);
+    }
+
+    public synchronized void log(String level, String message) {
+        buffer.append("{\"time\":").append(System.currentTimeMillis())
+                .append(",\"task\":\"").append(BuildMetrics.escape(taskName))
+                .append("\",\"level\":\"").append(level)
+                .append("\",\"message\":\"").append(BuildMetrics.escape(message)).append("\"}\n");
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (buffer.length() > 0) {
+            try {
+                out.write(buffer.toString().getBytes(UTF_8));
+            } catch (IOException e) {
+                // Logging must never fail the build
+            }
+            buffer.setLength(0);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts tar.gz archives. Decompression runs on the calling thread while
+ * the entries are written by a pool of writer threads. Small entries are
+ * read into memory and handed off to the writers, the amount of memory in
+ * flight being bounded by {@link #MAX_PENDING_BYTES}. Entries larger than
+ * {@link #MAX_HANDOFF_SIZE} are copied into their {@link FileChannel} by
+ * the calling thread through a {@link #BUFFER_SIZE} heap buffer. Symbolic
+ * links are recreated as links. Entries, and the targets of links, which
+ * would end up outside the destination directory, also by way of a link
+ * extracted earlier, fail the extraction.
+ */
+public class TarGzExtractor {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_HANDOFF_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final int threads;
+
+    public TarGzExtractor() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public TarGzExtractor(int threads) {
+        this.threads = threads;
+    }
+
+    public void extract(File archive, File destDir) throws IOException {
+        final Semaphore pending = new Semaphore(MAX_PENDING_BYTES);
+        Set<File> createdDirs = new HashSet<>();
+        Map<File, Long> dirTimes = new LinkedHashMap<>();
+        List<Future<Void>> writes = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        TarArchiveInputStream in = null;
+        try {
+            in = new TarArchiveInputStream(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            destDir.mkdirs();
+            Path root = destDir.getCanonicalFile().toPath();
+            TarArchiveEntry entry = null;
+            while ((entry = in.getNextTarEntry()) != null) {
+                final File f = resolve(root, entry.getName());
+                final long lastModified = entry.getLastModifiedDate().getTime();
+                final int mode = entry.getMode();
+
+                if (entry.isDirectory()) {
+                    checkContained(root, f, entry.getName());
+                    mkdirs(f, createdDirs);
+                    // Set once all files have been written
+                    dirTimes.put(f, lastModified);
+                    continue;
+                }
+
+                checkContained(root, f.getParentFile(), entry.getName());
+                mkdirs(f.getParentFile(), createdDirs);
+                if (entry.isSymbolicLink()) {
+                    Path link = Paths.get(entry.getLinkName());
+                    if (link.isAbsolute() || !f.getParentFile().getCanonicalFile().toPath().resolve(link)
+                            .normalize().startsWith(root)) {
+                        throw new IOException("Link " + entry.getName() + " to " + entry.getLinkName()
+                                + " points outside of " + destDir);
+                    }
+                    // Pending writes must not end up going through the link
+                    for (Future<Void> write : writes) {
+                        waitFor(write);
+                    }
+                    Files.deleteIfExists(f.toPath());
+                    Files.createSymbolicLink(f.toPath(), link);
+                    continue;
+                }
+                long size = entry.getSize();
+                if (size > MAX_HANDOFF_SIZE) {
+                    checkWrites(writes);
+                    try (FileChannel out = openForWrite(f)) {
+                        long remaining = size;
+                        while (remaining > 0) {
+                            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (n == -1) {
+                                throw new IOException("Unexpected end of archive while extracting " + f);
+                            }
+                            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+                            while (bb.hasRemaining()) {
+                                out.write(bb);
+                            }
+                            remaining -= n;
+                        }
+                    }
+                    setAttributes(f, lastModified, mode);
+                } else {
+                    final int permits = (int) Math.max(1, size);
+                    pending.acquireUninterruptibly(permits);
+                    final byte[] data;
+                    try {
+                        data = new byte[(int) size];
+                        readFully(in, data);
+                    } catch (IOException e) {
+                        pending.release(permits);
+                        throw e;
+                    }
+                    writes.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            try (FileChannel out = openForWrite(f)) {
+                                ByteBuffer buffer = ByteBuffer.wrap(data);
+                                while (buffer.hasRemaining()) {
+                                    out.write(buffer);
+                                }
+                            } finally {
+                                pending.release(permits);
+                            }
+                            setAttributes(f, lastModified, mode);
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Void> write : writes) {
+                waitFor(write);
+            }
+            for (Map.Entry<File, Long> dir : dirTimes.entrySet()) {
+                dir.getKey().setLastModified(dir.getValue());
+            }
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static File resolve(Path root, String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Entry " + name + " is outside of " + root);
+        }
+        return path.toFile();
+    }
+
+    /**
+     * Fails if the specified file, following the links on its way, isn't
+     * within the specified root directory.
+     */
+    private static void checkContained(Path root, File file, String name) throws IOException {
+        if (!file.getCanonicalFile().toPath().startsWith(root)) {
+            throw new IOException("Entry " + name + " is written through a link to outside of " + root);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int n = in.read(data, offset, data.length - offset);
+            if (n == -1) {
+                throw new IOException("Unexpected end of archive");
+            }
+            offset += n;
+        }
+    }
+
+    private static FileChannel openForWrite(File f) throws IOException {
+        return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void setAttributes(File f, long lastModified, int mode) {
+        f.setLastModified(lastModified);
+        if ((mode & 00100) > 0) {
+            // Preserve execute permissions
+            f.setExecutable(true, (mode & 00001) == 0);
+        }
+    }
+
+    private static void mkdirs(File dir, Set<File> createdDirs) throws IOException {
+        if (createdDirs.add(dir)) {
+            if (!dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Failed to create directory " + dir);
+            }
+        }
+    }
+
+    /**
+     * Fails early if one of the writes completed so far has failed.
+     */
+    private static void checkWrites(List<Future<Void>> writes) throws IOException {
+        for (Future<Void> write : writes) {
+            if (write.isDone()) {
+                waitFor(write);
+            }
+        }
+    }
+
+    private static void waitFor(Future<Void> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting archive", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
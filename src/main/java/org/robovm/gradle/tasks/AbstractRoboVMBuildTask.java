@@ -15,43 +15,163 @@
  */
 package org.robovm.gradle.tasks;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
 import org.robovm.compiler.AppCompiler;
 import org.robovm.compiler.config.Arch;
-import org.robovm.compiler.config.Config;
+import org.robovm.compiler.target.ConsoleTarget;
+import org.robovm.gradle.internal.CompilerSettings;
+import org.robovm.gradle.internal.ConfigFileCache;
+import org.robovm.gradle.internal.LinkedCompilers;
 
 /**
- * 
+ * Installs or archives the app linked by the {@code robovmLink<Target>}
+ * task this task depends on. Every build task has compile and link stages
+ * and a work directory of its own.
  */
 public abstract class AbstractRoboVMBuildTask extends AbstractRoboVMTask {
 
     protected abstract boolean shouldArchive();
-    
+
+    /**
+     * The installed app, or the IPA when archiving, ends up in this directory.
+     */
+    @Override
+    public File getInstallDir() {
+        return super.getInstallDir();
+    }
+
+    /**
+     * Returns the IPA this task archives the app to, or {@code null} if it
+     * installs the app or the name of the app isn't known. The products of
+     * the build tasks are declared as their outputs, rather than the install
+     * directory they share.
+     */
+    @OutputFile
+    @Optional
+    public File getArchiveFile() {
+        String imageName = getImageName();
+        return shouldArchive() && imageName != null ? new File(getInstallDir(), imageName + ".ipa") : null;
+    }
+
+    /**
+     * Returns the app bundle this task installs, or {@code null} if it
+     * archives the app, the app is a console app or its name isn't known.
+     */
+    @OutputDirectory
+    @Optional
+    public File getAppDir() {
+        String executableName = getExecutableName();
+        return !shouldArchive() && !isConsoleApp() && executableName != null
+                ? new File(getInstallDir(), executableName + ".app") : null;
+    }
+
+    /**
+     * Returns the executable this task installs for a console app, or
+     * {@code null} if it archives the app, the app isn't a console app or
+     * its name isn't known.
+     */
+    @OutputFile
+    @Optional
+    public File getExecutableFile() {
+        String executableName = getExecutableName();
+        return !shouldArchive() && isConsoleApp() && executableName != null
+                ? new File(getInstallDir(), executableName) : null;
+    }
+
+    /**
+     * Returns the target type set for this task or {@code null} if it's
+     * left to the config file.
+     */
+    protected String getTargetType() {
+        return null;
+    }
+
+    /**
+     * Returns the executable name set in the config file, which RoboVM
+     * defaults to the main class.
+     */
+    private String getExecutableName() {
+        String executableName = getConfigValue("executableName");
+        if (executableName == null && project.hasProperty("mainClassName")) {
+            executableName = (String) project.property("mainClassName");
+        }
+        return executableName;
+    }
+
+    private String getImageName() {
+        String imageName = getConfigValue("imageName");
+        return imageName != null ? imageName : getExecutableName();
+    }
+
+    private boolean isConsoleApp() {
+        String targetType = getTargetType() != null ? getTargetType() : getConfigValue("target");
+        return ConsoleTarget.TYPE.equals(targetType);
+    }
+
+    private String getConfigValue(String name) {
+        CompilerSettings settings = new CompilerSettings()
+                .projectDir(project.getProjectDir())
+                .propertiesFile(getRoboVMPropertiesFile())
+                .configFile(getRoboVMConfigFile())
+                .configFileCache(ConfigFileCache.get(project));
+        try {
+            return settings.getConfigValue(name);
+        } catch (IOException e) {
+            throw new GradleException("Failed to read the RoboVM config file", e);
+        }
+    }
+
+    /**
+     * Returns a work directory of this task's own, so that the stages of
+     * {@code createIPA}, {@code robovmArchive} and {@code robovmInstall}
+     * don't share their outputs.
+     */
+    @Override
+    public File getWorkDir() {
+        File workDir = super.getWorkDir();
+        return new File(workDir.getParentFile(), workDir.getName() + "-" + getName());
+    }
+
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        if (extension.getArchs() != null) {
+            List<Arch> archs = new ArrayList<>();
+            for (String s : extension.getArchs().trim().split(":")) {
+                archs.add(Arch.valueOf(s));
+            }
+            settings.archs(archs);
+        }
+        settings.enableBitcode(extension.isEnableBitcode());
+    }
+
     @Override
     public void invoke() {
         try {
-            Config.Builder builder = configure(new Config.Builder())
-                    .skipInstall(false);
-
-            if (extension.getArchs() != null) {
-                List<Arch> archs = new ArrayList<>();
-                for (String s : extension.getArchs().trim().split(":")) {
-                    archs.add(Arch.valueOf(s));
-                }
-                builder.archs(archs);
+            // Use the compiler the link stage built the app with. There is
+            // none if the stage was up-to-date, restored the executable from
+            // the build cache or linked in the daemon. The executable in the
+            // work directory is current then and a new compiler for the same
+            // settings installs it.
+            AppCompiler compiler = LinkedCompilers.get(project).take(getWorkDir());
+            if (compiler == null) {
+                compiler = createAppCompiler(createTargetSettings().skipInstall(false));
             }
-            builder.enableBitcode(extension.isEnableBitcode());
 
-            AppCompiler compiler = new AppCompiler(builder.build());
-            compiler.build();
+            long start = System.nanoTime();
             if (shouldArchive()) {
                 compiler.archive();
+                metrics.record("archive", start);
             } else {
                 compiler.install();
+                metrics.record("install", start);
             }
         } catch (IOException e) {
             if (shouldArchive()) {
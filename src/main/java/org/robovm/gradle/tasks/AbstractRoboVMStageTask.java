@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.OutputFile;
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.config.OS;
+import org.robovm.gradle.internal.CacheMaintenance;
+import org.robovm.gradle.internal.CompilerSettings;
+
+/**
+ * Base class of the tasks which build the app for another RoboVM task, the
+ * target task, before that task installs, archives or launches it. Each
+ * stage writes a stamp file into the target's work directory which serves
+ * as the stage's declared output.
+ */
+public abstract class AbstractRoboVMStageTask extends AbstractRoboVMTask {
+
+    private AbstractRoboVMTask targetTask;
+
+    public AbstractRoboVMTask getTargetTask() {
+        return targetTask;
+    }
+
+    public void setTargetTask(AbstractRoboVMTask targetTask) {
+        this.targetTask = targetTask;
+    }
+
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        targetTask.configureTarget(settings);
+    }
+
+    @Override
+    public File getWorkDir() {
+        return targetTask.getWorkDir();
+    }
+
+    /**
+     * Returns the target's install directory, so that the {@link Config}
+     * of a stage is the one the target installs or archives with.
+     */
+    @Override
+    public File getInstallDir() {
+        return targetTask.getInstallDir();
+    }
+
+    @Override
+    protected File getRoboVMPropertiesFile() {
+        return targetTask.getRoboVMPropertiesFile();
+    }
+
+    @Override
+    protected File getRoboVMConfigFile() {
+        return targetTask.getRoboVMConfigFile();
+    }
+
+    @Override
+    public Map<String, String> getRoboVMSettings() {
+        return targetTask.getRoboVMSettings();
+    }
+
+    protected abstract String getStampName();
+
+    @OutputFile
+    public File getStampFile() {
+        return new File(getWorkDir(), getStampName());
+    }
+
+    /**
+     * Returns the contents of the stamp file of the specified stage in the
+     * same work directory or {@code null} if there is none.
+     */
+    protected String readStamp(String stampName) throws IOException {
+        File stampFile = new File(getWorkDir(), stampName);
+        return stampFile.exists() ? FileUtils.readFileToString(stampFile, "UTF-8") : null;
+    }
+
+    protected void writeStamp(String contents) throws IOException {
+        FileUtils.writeStringToFile(getStampFile(), contents != null ? contents : "", "UTF-8");
+    }
+
+    /**
+     * Runs the compiler for the specified {@link AppCompiler}. With
+     * {@code parallelArchs} enabled and more than one arch the arch slices
+     * are built concurrently.
+     */
+    protected void compile(AppCompiler compiler, boolean link) throws IOException {
+        int worker = acquireWorker();
+        try {
+            long start = System.nanoTime();
+            List<Arch> archs = compiler.getConfig().getArchs();
+            if (extension.isParallelArchs() && archs.size() > 1) {
+                buildSlices(compiler.getConfig(), archs, link);
+            } else {
+                compiler.build();
+            }
+            metrics.record("compile", start);
+        } finally {
+            releaseWorker(worker);
+        }
+    }
+
+    /**
+     * Compiles, and links if {@code link} is set, every arch slice on its
+     * own {@link AppCompiler} concurrently and merges the linked slices into
+     * a fat binary in the work directory of the specified {@link Config},
+     * just like {@link AppCompiler#build()} does one slice at a time.
+     */
+    private void buildSlices(Config config, List<Arch> archs, boolean link) throws IOException {
+        int threads = extension.getArchThreads() > 0 ? extension.getArchThreads() : archs.size();
+        threads = Math.min(threads, archs.size());
+        // Share the cores between the slices instead of letting each slice
+        // compiler start one thread per core
+        int compilerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+
+        Map<Arch, Config> sliceConfigs = new TreeMap<>();
+        for (Arch arch : archs) {
+            sliceConfigs.put(arch, config.builder()
+                    .arch(arch)
+                    .archs(Collections.singletonList(arch))
+                    .tmpDir(new File(config.getTmpDir(), arch.toString()))
+                    .threads(compilerThreads)
+                    .build());
+        }
+
+        getLogger().info("Building " + archs.size() + " arch slices using " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<Arch, Future<File>> futures = new TreeMap<>();
+            for (final Map.Entry<Arch, Config> entry : sliceConfigs.entrySet()) {
+                futures.put(entry.getKey(), executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        Config sliceConfig = entry.getValue();
+                        getLogger().info("Building " + entry.getKey() + " slice");
+                        long start = System.nanoTime();
+                        new AppCompiler(sliceConfig).build();
+                        metrics.record("compile-" + entry.getKey(), start);
+                        return new File(sliceConfig.getTmpDir(), sliceConfig.getExecutableName());
+                    }
+                }));
+            }
+
+            Map<Arch, File> slices = new TreeMap<>();
+            for (Map.Entry<Arch, Future<File>> entry : futures.entrySet()) {
+                slices.put(entry.getKey(), entry.getValue().get());
+            }
+            if (link) {
+                long start = System.nanoTime();
+                config.getTarget().buildFat(slices);
+                metrics.record("lipo", start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while building arch slices", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new GradleException("Failed to build arch slice", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Records that this build used, and is up to date with, the compiler
+     * cache entries of the classpath for the specified OS and archs and,
+     * if the cache is limited in size or age, schedules an eviction for
+     * when the build has finished.
+     */
+    protected void recordCacheUse(CompilerSettings settings, OS os, List<Arch> archs) {
+        File cacheDir = settings.getCacheDir();
+        long start = System.nanoTime();
+        try {
+            new CacheMaintenance(cacheDir, getLogger()).recordUse(getCacheEntryStamps(settings, os, archs));
+        } catch (IOException e) {
+            getLogger().warn("Failed to record the use of the RoboVM cache " + cacheDir, e);
+        }
+        metrics.record("cacheIndex", start);
+
+        String maxSize = extension.getMaxCacheSize();
+        int maxAge = extension.getMaxCacheAge();
+        if (maxSize != null || maxAge >= 0) {
+            CacheMaintenance.scheduleEviction(project, cacheDir,
+                    maxSize != null ? CacheMaintenance.parseSize(maxSize) : -1,
+                    maxAge >= 0 ? TimeUnit.DAYS.toMillis(maxAge) : -1);
+        }
+    }
+}
@@ -16,50 +16,53 @@
 package org.robovm.gradle.tasks;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
+import java.util.TreeMap;
 
-import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.maven.repository.internal.MavenRepositorySystemSession;
-import org.apache.maven.repository.internal.MavenServiceLocator;
-import org.apache.maven.wagon.Wagon;
-import org.apache.maven.wagon.providers.http.HttpWagon;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.TaskAction;
 import org.robovm.compiler.AppCompiler;
 import org.robovm.compiler.config.Arch;
 import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.log.Logger;
-import org.robovm.compiler.target.ios.ProvisioningProfile;
-import org.robovm.compiler.target.ios.SigningIdentity;
+import org.robovm.compiler.target.LaunchParameters;
 import org.robovm.gradle.RoboVMPlugin;
 import org.robovm.gradle.RoboVMPluginExtension;
-import org.sonatype.aether.RepositorySystem;
-import org.sonatype.aether.RepositorySystemSession;
+import org.robovm.gradle.internal.ArtifactResolver;
+import org.robovm.gradle.internal.BuildMetrics;
+import org.robovm.gradle.internal.BuildOutputCache;
+import org.robovm.gradle.internal.CacheLocks;
+import org.robovm.gradle.internal.CacheMaintenance;
+import org.robovm.gradle.internal.ClasspathFingerprints;
+import org.robovm.gradle.internal.CompilerDaemon;
+import org.robovm.gradle.internal.CompilerDaemonClient;
+import org.robovm.gradle.internal.CompilerSettings;
+import org.robovm.gradle.internal.CompilerWorkers;
+import org.robovm.gradle.internal.ConfigFileCache;
+import org.robovm.gradle.internal.DistributionPrefetch;
+import org.robovm.gradle.internal.GradleLoggerBridge;
+import org.robovm.gradle.internal.RoboVMCaches;
+import org.robovm.gradle.internal.SigningLookup;
+import org.robovm.gradle.internal.StructuredLogSink;
 import org.sonatype.aether.artifact.Artifact;
-import org.sonatype.aether.connector.wagon.WagonProvider;
-import org.sonatype.aether.connector.wagon.WagonRepositoryConnectorFactory;
-import org.sonatype.aether.repository.LocalRepository;
-import org.sonatype.aether.repository.RemoteRepository;
-import org.sonatype.aether.resolution.ArtifactRequest;
-import org.sonatype.aether.resolution.ArtifactResolutionException;
-import org.sonatype.aether.resolution.ArtifactResult;
-import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
-import org.sonatype.aether.util.artifact.DefaultArtifact;
 
 /**
  *
@@ -67,358 +70,632 @@ import org.sonatype.aether.util.artifact.DefaultArtifact;
  */
 abstract public class AbstractRoboVMTask extends DefaultTask {
 
+    private static final String TMP_DIR_MARKER = ".robovm-tmp";
+    private static final long TMP_DIR_MAX_AGE = 14L * 24 * 60 * 60 * 1000;
+    private static final String TMP_DIR_LOCK_FILE = ".lock";
+    private static final String TMP_DIR_LAYOUT_MARKER = ".robovm-layout";
+    private static final Object TMP_DIR_LOCK = new Object();
+
     protected final Project project;
     protected final RoboVMPluginExtension extension;
-    protected final RepositorySystem repositorySystem;
-    protected final RepositorySystemSession repositorySystemSession;
-    protected final List<RemoteRepository> remoteRepositories;
     protected Logger roboVMLogger;
+    protected BuildMetrics metrics;
+    protected StructuredLogSink logSink;
 
     public AbstractRoboVMTask() {
         project = getProject();
         extension = (RoboVMPluginExtension) project.getExtensions().getByName(RoboVMPluginExtension.NAME);
-        repositorySystem = createRepositorySystem();
-        repositorySystemSession = createRepositorySystemSession();
-        remoteRepositories = createRemoteRepositories();
+        metrics = new BuildMetrics(getName());
     }
 
-    public AppCompiler build(OS os, Arch arch, String targetType) {
-        getLogger().info("Building RoboVM app for: " + os + " (" + arch + ")");
+    /**
+     * Sets the OS, arch(s) and target type this task builds the app for on
+     * the specified settings. This is also used to locate the work
+     * directory, so it must not do anything expensive.
+     */
+    protected abstract void configureTarget(CompilerSettings settings);
+
+    /**
+     * Returns the compiler settings for the target of this task, using the
+     * target's work directory.
+     */
+    protected CompilerSettings createTargetSettings() {
+        CompilerSettings settings = createCompilerSettings();
+        configureTarget(settings);
+        return settings.tmpDir(getWorkDir());
+    }
 
-        Config.Builder builder;
+    /**
+     * Builds the compiler {@link Config} for the specified settings without
+     * compiling anything.
+     */
+    protected AppCompiler createAppCompiler(CompilerSettings settings) throws IOException {
+        Config.Builder builder = configure(new Config.Builder(), settings);
+        long start = System.nanoTime();
         try {
-            builder = new Config.Builder();
-        } catch (IOException e) {
-            throw new GradleException(e.getMessage(), e);
+            return new AppCompiler(builder.build());
+        } finally {
+            metrics.record("config", start);
         }
+    }
 
-        configure(builder).os(os).arch(arch).targetType(targetType);
-
-        // execute the RoboVM build
-        Config config;
-
-        try {
-            getLogger().info("Compiling RoboVM app, this could take a while, especially the first time round");
-            config = builder.build();
-            AppCompiler compiler = new AppCompiler(config);
-            compiler.build();
-            getLogger().info("Compile RoboVM app completed.");
-            return compiler;
-        } catch (IOException e) {
-            throw new GradleException("Error building RoboVM executable for app", e);
-        }
+    /**
+     * Returns the directory the compiler caches object files in.
+     */
+    protected File getCompilerCacheDir() {
+        return extension.getCacheDir() != null ? new File(extension.getCacheDir()) : Config.getDefaultCacheDir();
     }
 
-    protected Config.Builder configure(Config.Builder builder) {
-        builder.logger(getRoboVMLogger());
+    /**
+     * Returns the paths of the compiler cache entries of the classpath of
+     * the specified settings, including the JARs of the RoboVM
+     * distribution, for the specified OS and archs. Either may be
+     * {@code null} if it's left to the config files.
+     */
+    protected List<String> getCacheEntryPaths(CompilerSettings settings, OS os, List<Arch> archs)
+            throws IOException {
 
-        if (extension.getPropertiesFile() != null) {
-            File propertiesFile = new File(extension.getPropertiesFile());
+        return CacheMaintenance.getEntryPaths(os, archs, settings.isDebug(), getCachedClasspath(settings));
+    }
 
-            if (!propertiesFile.exists()) {
-                throw new GradleException("Invalid 'propertiesFile' specified for RoboVM compile: " + propertiesFile);
-            }
-            try {
-                getLogger().debug(
-                        "Including properties file in RoboVM compiler config: " + propertiesFile.getAbsolutePath());
-                builder.addProperties(propertiesFile);
-            } catch (IOException e) {
-                throw new GradleException("Failed to add properties file to RoboVM config: " + propertiesFile);
-            }
-        } else {
-            try {
-                builder.readProjectProperties(project.getProjectDir(), false);
-            } catch (IOException e) {
-                throw new GradleException(
-                        "Failed to read RoboVM project properties file(s) in "
-                                + project.getProjectDir().getAbsolutePath(), e);
+    /**
+     * Returns the classpath of the specified settings together with the
+     * JARs of the RoboVM distribution, all of which the compiler caches
+     * object files for.
+     */
+    protected List<File> getCachedClasspath(CompilerSettings settings) {
+        List<File> classpath = new ArrayList<>(settings.getClasspath());
+        File[] bootJars = new File(settings.getHome(), "lib").listFiles();
+        if (bootJars != null) {
+            for (File jar : bootJars) {
+                if (jar.getName().endsWith(".jar")) {
+                    classpath.add(jar);
+                }
             }
         }
+        return classpath;
+    }
 
-        if (extension.getConfigFile() != null) {
-            File configFile = new File(extension.getConfigFile());
-
-            if (!configFile.exists()) {
-                throw new GradleException("Invalid 'configFile' specified for RoboVM compile: " + configFile);
-            }
-            try {
-                getLogger().debug("Loading config file for RoboVM compiler: " + configFile.getAbsolutePath());
-                builder.read(configFile);
-            } catch (Exception e) {
-                throw new GradleException("Failed to read RoboVM config file: " + configFile);
-            }
-        } else {
-            try {
-                builder.readProjectConfig(project.getProjectDir(), false);
-            } catch (Exception e) {
-                throw new GradleException(
-                        "Failed to read project RoboVM config file in "
-                                + project.getProjectDir().getAbsolutePath(), e);
+    /**
+     * Returns the paths of the compiler cache entries of the classpath of
+     * the specified settings, as returned by {@link #getCacheEntryPaths},
+     * mapped to stamps of the classpath entries they're compiled from. The
+     * stamps are made up of the RoboVM version and the JAR's size and
+     * modification time, which the compiler decides on recompiling by.
+     * Class directories, and every entry if the OS or archs aren't known,
+     * are mapped to {@code null}.
+     */
+    protected Map<String, String> getCacheEntryStamps(CompilerSettings settings, OS os, List<Arch> archs)
+            throws IOException {
+
+        boolean known = os != null && archs != null && !archs.isEmpty();
+        Map<String, String> stamps = new LinkedHashMap<>();
+        for (File entry : getCachedClasspath(settings)) {
+            String stamp = known && entry.isFile()
+                    ? RoboVMPlugin.getRoboVMVersion() + "/" + entry.length() + "/" + entry.lastModified()
+                    : null;
+            for (String path : CacheMaintenance.getEntryPaths(os, archs, settings.isDebug(),
+                    Collections.singletonList(entry))) {
+                stamps.put(path, stamp);
             }
         }
+        return stamps;
+    }
 
-        File installDir = null;
-        if (extension.getInstallDir() != null) {
-            installDir = new File(extension.getInstallDir());
-        } else {
-            installDir = new File(project.getBuildDir(), "robovm");
-        }
-        File cacheDir = null;
-        if(extension.getCacheDir() != null) {
-            cacheDir = new File(extension.getCacheDir());
-        } else {
-            cacheDir = Config.getDefaultCacheDir();
-        }
-        File temporaryDirectory = new File(project.getBuildDir(), "robovm.tmp");
+    /**
+     * Locks the compiler cache entries of the specified settings for a
+     * compilation for the specified OS and archs. Entries which are up to
+     * date, like those of the JARs of the RoboVM distribution once they've
+     * been compiled, are only read by the compiler and are locked shared,
+     * the others exclusively. Builds therefore only wait for each other
+     * when they would compile the same entries.
+     */
+    protected CacheLocks.Handle lockCacheForCompile(CompilerSettings settings, OS os, List<Arch> archs)
+            throws IOException {
+
+        long start = System.nanoTime();
         try {
-            FileUtils.deleteDirectory(temporaryDirectory);
-        } catch (IOException e) {
-            throw new GradleException("Failed to clean output dir " + temporaryDirectory, e);
+            Map<String, String> stamps = getCacheEntryStamps(settings, os, archs);
+            CacheMaintenance maintenance = new CacheMaintenance(settings.getCacheDir(), getLogger());
+            CacheLocks locks = CacheLocks.get(settings.getCacheDir());
+            while (true) {
+                Set<String> upToDate = maintenance.getUpToDate(stamps);
+                List<String> exclusive = new ArrayList<>(stamps.keySet());
+                exclusive.removeAll(upToDate);
+                CacheLocks.Handle handle = locks.lock(exclusive, upToDate, getLogger());
+                // An entry may have been evicted before it was locked
+                if (maintenance.getUpToDate(stamps).containsAll(upToDate)) {
+                    getLogger().debug("Locked " + exclusive.size() + " RoboVM cache entries for writing and "
+                            + upToDate.size() + " for reading");
+                    return handle;
+                }
+                handle.close();
+            }
+        } finally {
+            metrics.record("waitForCache", start);
         }
-        temporaryDirectory.mkdirs();
-
-        builder.home(new Config.Home(unpack()))
-                .tmpDir(temporaryDirectory)
-                .skipInstall(true)
-                .installDir(installDir)
-                .cacheDir(cacheDir);
+    }
 
-        if (project.hasProperty("mainClassName")) {
-            builder.mainClass((String) project.property("mainClassName"));
-        }
+    /**
+     * Locks the compiler cache entries of the specified settings for the
+     * specified OS and archs, see {@link #getCacheEntryPaths}. Compilations
+     * lock through {@link #lockCacheForCompile} instead.
+     */
+    protected CacheLocks.Handle lockCache(CompilerSettings settings, OS os, List<Arch> archs, boolean shared)
+            throws IOException {
 
-        if (extension.isDebug()) {
-            builder.debug(true);
-            if (extension.getDebugPort() != -1) {
-                builder.addPluginArgument("debug:jdwpport=" + extension.getDebugPort());
-            }
+        long start = System.nanoTime();
+        try {
+            return CacheLocks.get(settings.getCacheDir()).lock(getCacheEntryPaths(settings, os, archs), shared,
+                    getLogger());
+        } finally {
+            metrics.record("waitForCache", start);
         }
+    }
 
-        if (extension.isSkipLinking()) {
-            builder.skipLinking(true);
+    /**
+     * Returns the archs set for the target or {@code null} if they're left
+     * to the config files.
+     */
+    protected static List<Arch> getTargetArchs(CompilerSettings settings) {
+        if (settings.getArchs() != null) {
+            return settings.getArchs();
         }
+        return settings.getArch() != null ? Arrays.asList(settings.getArch()) : null;
+    }
 
-        if (extension.isIosSkipSigning()) {
-            builder.iosSkipSigning(true);
-        } else {
-            if (extension.getIosSignIdentity() != null) {
-                String iosSignIdentity = extension.getIosSignIdentity();
-
-                getLogger().debug("Using explicit iOS Signing identity: " + iosSignIdentity);
-                builder.iosSignIdentity(SigningIdentity.find(SigningIdentity.list(), iosSignIdentity));
-            }
-
-            if (extension.getIosProvisioningProfile() != null) {
-                String iosProvisioningProfile = extension.getIosProvisioningProfile();
+    protected BuildOutputCache createBuildOutputCache() {
+        File localDir = extension.getBuildCacheDir() != null
+                ? project.file(extension.getBuildCacheDir())
+                : getCaches().getBuildCacheDir();
+        return new BuildOutputCache(localDir, extension.getBuildCacheUrl(), extension.isBuildCachePush(), getLogger());
+    }
 
-                getLogger().debug("Using explicit iOS provisioning profile: " + iosProvisioningProfile);
-                builder.iosProvisioningProfile(ProvisioningProfile.find(ProvisioningProfile.list(),
-                        iosProvisioningProfile));
-            }
-            
-            if (extension.getKeychainPassword() != null) {
-                builder.keychainPassword(extension.getKeychainPassword());
-            } else if (extension.getKeychainPasswordFile() != null) {
-                builder.keychainPasswordFile(new File(extension.getKeychainPasswordFile()));
-            }
+    /**
+     * Returns whether the {@link BuildOutputCache} should be used for the
+     * specified settings.
+     */
+    protected boolean isBuildCacheEnabled(CompilerSettings settings) {
+        if (!extension.isBuildCache() || settings.isSkipLinking()) {
+            return false;
         }
+        if (extension.isDaemon()) {
+            getLogger().info("The RoboVM build cache is not used when compiling in the daemon");
+            return false;
+        }
+        return true;
+    }
 
-        builder.clearClasspathEntries();
-
-        // configure the runtime classpath
-        Set<File> classpathEntries = project.getConfigurations().getByName("runtime").getFiles();
-        classpathEntries.add(new File(project.getBuildDir(), "classes/main"));
-        classpathEntries.add(new File(project.getBuildDir(), "resources/main"));
-
-        if (project.hasProperty("output.classesDir")) {
-            classpathEntries.add((File) project.property("output.classesDir"));
+    /**
+     * Returns the {@link BuildOutputCache} key for the specified settings.
+     * Config files, the libraries and frameworks they refer to and classpath
+     * entries contribute their contents only, so the key is the same in
+     * every checkout of the same sources.
+     */
+    protected String computeBuildCacheKey(CompilerSettings settings) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        inputs.add("version=" + RoboVMPlugin.getRoboVMVersion());
+        inputs.addAll(settings.getCacheKeyInputs());
+        ClasspathFingerprints fingerprints = new ClasspathFingerprints(getClasspathFingerprintsFile(), getLogger());
+        for (File file : getConfigFiles()) {
+            inputs.add("config:" + file.getName() + "=" + fingerprints.fingerprint(file));
+        }
+        for (File file : settings.getLinkedFiles()) {
+            inputs.add("linked:" + file.getName() + "=" + fingerprints.fingerprint(file));
         }
+        for (File entry : settings.getClasspath()) {
+            inputs.add("classpath=" + fingerprints.fingerprint(entry));
+        }
+        fingerprints.save();
+        return BuildOutputCache.key(inputs);
+    }
 
-        for (File classpathEntry : classpathEntries) {
-            if (getLogger().isDebugEnabled()) {
-                getLogger().debug("Including classpath element for RoboVM app: " + classpathEntry.getAbsolutePath());
-            }
+    protected Config.Builder configure(Config.Builder builder) {
+        return configure(builder, createCompilerSettings());
+    }
 
-            builder.addClasspathEntry(classpathEntry);
+    protected Config.Builder configure(Config.Builder builder, CompilerSettings settings) {
+        long start = System.nanoTime();
+        try {
+            return settings.applyTo(builder, getRoboVMLogger(), metrics);
+        } finally {
+            metrics.record("configure", start);
         }
+    }
 
-        return builder;
+    /**
+     * Captures the {@link RoboVMPluginExtension} values and the project
+     * state the compiler configuration is built from.
+     */
+    protected CompilerSettings createCompilerSettings() {
+        long start = System.nanoTime();
+        try {
+            return new CompilerSettings()
+                    .projectDir(project.getProjectDir())
+                    .propertiesFile(getRoboVMPropertiesFile())
+                    .configFile(getRoboVMConfigFile())
+                    .home(unpack())
+                    .installDir(getInstallDir())
+                    .cacheDir(getCompilerCacheDir())
+                    .mainClass(project.hasProperty("mainClassName") ? (String) project.property("mainClassName") : null)
+                    .debug(extension.isDebug(), extension.getDebugPort())
+                    .skipLinking(extension.isSkipLinking())
+                    .iosSkipSigning(extension.isIosSkipSigning())
+                    .iosSignIdentity(extension.getIosSignIdentity())
+                    .iosProvisioningProfile(extension.getIosProvisioningProfile())
+                    .keychainPassword(extension.getKeychainPassword())
+                    .keychainPasswordFile(extension.getKeychainPasswordFile() != null
+                            ? new File(extension.getKeychainPasswordFile()) : null)
+                    .signingLookup(SigningLookup.get(project))
+                    .configFileCache(ConfigFileCache.get(project))
+                    .classpath(getCompilerClasspath());
+        } finally {
+            metrics.record("configure", start);
+        }
     }
 
-    @TaskAction
-    abstract public void invoke();
+    /**
+     * Runs the specified {@link CompilerDaemon} action in the compiler
+     * daemon for the current RoboVM version.
+     */
+    protected void compileInDaemon(CompilerSettings settings, String action) {
+        int worker = acquireWorker();
+        long start = System.nanoTime();
+        // One daemon per worker slot so that parallel compilations run in
+        // separate processes
+        File daemonDir = getCaches().getDaemonDir(RoboVMPlugin.getRoboVMVersion(), worker);
+        // Spare the daemon formatting and sending messages nobody logs
+        String logLevel = logSink != null || getLogger().isDebugEnabled() ? "debug"
+                : getLogger().isInfoEnabled() ? "info" : "warn";
+        try {
+            new CompilerDaemonClient(daemonDir, extension.getDaemonMaxHeap(), getLogger())
+                    .execute(settings, action, logLevel, getRoboVMLogger());
+        } catch (IOException e) {
+            throw new GradleException("Failed to communicate with the RoboVM compiler daemon", e);
+        } finally {
+            metrics.record("compile", start);
+            releaseWorker(worker);
+        }
+    }
 
-    protected File unpack() throws GradleException {
-        final Artifact artifact = resolveArtifact("org.robovm:robovm-dist:tar.gz:nocompiler:"
-                + RoboVMPlugin.getRoboVMVersion());
-        final File distTarFile = artifact.getFile();
-        final File unpackedDirectory = new File(distTarFile.getParent(), "unpacked");
-        final File unpackedDistDirectory = new File(unpackedDirectory, "robovm-" + RoboVMPlugin.getRoboVMVersion());
-
-        if (unpackedDirectory.exists() && artifact.isSnapshot()) {
-            getAnt().invokeMethod("delete", new HashMap<String, Object>() {
-                {
-                    put("dir", unpackedDirectory.getAbsolutePath());
-                }
-            });
+    /**
+     * Waits for a free slot in the build-wide {@link CompilerWorkers} pool.
+     * Every compilation must hold a slot while running.
+     */
+    protected int acquireWorker() {
+        long start = System.nanoTime();
+        try {
+            return CompilerWorkers.get(project, extension.getMaxParallelCompilations()).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for a RoboVM compiler worker", e);
+        } finally {
+            metrics.record("waitForWorker", start);
         }
+    }
 
-        if (unpackedDirectory.exists()) {
-            getLogger().debug("Archive '" + distTarFile + "' was already unpacked in: " + unpackedDirectory);
-        } else {
-            getLogger().info("Extracting '" + distTarFile + "' to: " + unpackedDirectory);
+    protected void releaseWorker(int worker) {
+        CompilerWorkers.get(project, extension.getMaxParallelCompilations()).release(worker);
+    }
 
-            if (!unpackedDirectory.mkdirs()) {
-                throw new GradleException("Unable to create base directory to unpack into: " + unpackedDirectory);
+    @TaskAction
+    public void run() {
+        metrics = new BuildMetrics(getName());
+        if (extension.getLogFile() != null) {
+            File logFile = project.file(extension.getLogFile());
+            try {
+                logSink = new StructuredLogSink(logFile, project.getPath() + ":" + getName());
+                roboVMLogger = null;
+            } catch (IOException e) {
+                getLogger().warn("Failed to open RoboVM log file " + logFile, e);
             }
-
+        }
+        try {
+            invoke();
+        } catch (RuntimeException | Error e) {
+            metrics.failed();
+            throw e;
+        } finally {
+            File reportsDir = new File(project.getBuildDir(), "reports/robovm");
             try {
-                extractTarGz(distTarFile, unpackedDirectory);
+                metrics.writeReports(reportsDir);
             } catch (IOException e) {
-                throw new GradleException("Couldn't extract distribution tar.gz", e);
+                getLogger().warn("Failed to write RoboVM build metrics to " + reportsDir, e);
             }
-
-            if (!unpackedDistDirectory.exists()) {
-                throw new GradleException("Unable to unpack archive");
+            getLogger().info(metrics.summary());
+            if (logSink != null) {
+                logSink.log("info", metrics.summary());
+                try {
+                    logSink.close();
+                } catch (IOException e) {
+                    getLogger().warn("Failed to close RoboVM log file", e);
+                }
+                logSink = null;
+                roboVMLogger = null;
             }
+        }
+    }
 
-            getLogger().debug("Archive '" + distTarFile + "' unpacked to: " + unpackedDirectory);
+    abstract public void invoke();
+
+    protected int launch(AppCompiler compiler, LaunchParameters launchParameters) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return compiler.launch(launchParameters);
+        } finally {
+            metrics.record("launch", start);
         }
+    }
 
-        getAnt().invokeMethod("chmod", new HashMap<String, Object>() {
-            {
-                put("dir", new File(unpackedDistDirectory, "bin").getAbsoluteFile());
-                put("perm", "+x");
-                put("includes", "*");
-            }
-        });
+    /**
+     * Returns the classpath handed to the RoboVM compiler: the {@code runtime}
+     * configuration plus the main classes and resources output directories.
+     */
+    @InputFiles
+    public FileCollection getClasspath() {
+        return project.files(getClasspathEntries());
+    }
 
-        return unpackedDistDirectory;
+    /**
+     * Returns the RoboVM properties and config files read by {@link #configure(Config.Builder)}.
+     * Files which don't exist are included too so that adding one later is
+     * detected as a change.
+     */
+    @InputFiles
+    public FileCollection getConfigFiles() {
+        List<File> files = new ArrayList<>();
+        if (getRoboVMPropertiesFile() != null) {
+            files.add(getRoboVMPropertiesFile());
+        } else {
+            files.add(new File(project.getProjectDir(), "robovm.properties"));
+            files.add(new File(project.getProjectDir(), "robovm.local.properties"));
+        }
+        if (getRoboVMConfigFile() != null) {
+            files.add(getRoboVMConfigFile());
+        } else {
+            files.add(new File(project.getProjectDir(), "robovm.xml"));
+        }
+        return project.files(files);
     }
 
-    protected Artifact resolveArtifact(String artifactLocator) throws GradleException {
-        ArtifactRequest request = new ArtifactRequest();
-        DefaultArtifact artifact = new DefaultArtifact(artifactLocator);
-        request.setArtifact(artifact);
-        request.setRepositories(remoteRepositories);
+    /**
+     * Returns the explicitly configured RoboVM properties file or
+     * {@code null} to read the project's properties files.
+     */
+    protected File getRoboVMPropertiesFile() {
+        return extension.getPropertiesFile() != null ? new File(extension.getPropertiesFile()) : null;
+    }
 
-        getLogger().debug("Resolving artifact " + artifact + " from " + remoteRepositories);
+    /**
+     * Returns the explicitly configured RoboVM config file or {@code null}
+     * to read the project's {@code robovm.xml}.
+     */
+    protected File getRoboVMConfigFile() {
+        return extension.getConfigFile() != null ? new File(extension.getConfigFile()) : null;
+    }
 
-        ArtifactResult result;
+    /**
+     * Returns the {@link RoboVMPluginExtension} values which affect the
+     * compiler output. Keychain passwords are left out on purpose as they
+     * would otherwise end up in Gradle's task history.
+     */
+    @Input
+    public Map<String, String> getRoboVMSettings() {
+        Map<String, String> settings = new TreeMap<>();
+        putSetting(settings, "version", RoboVMPlugin.getRoboVMVersion());
+        putSetting(settings, "os", extension.getOs());
+        putSetting(settings, "arch", extension.getArch());
+        putSetting(settings, "archs", extension.getArchs());
+        putSetting(settings, "debug", extension.isDebug());
+        putSetting(settings, "debugPort", extension.getDebugPort());
+        putSetting(settings, "skipLinking", extension.isSkipLinking());
+        putSetting(settings, "enableBitcode", extension.isEnableBitcode());
+        putSetting(settings, "iosSkipSigning", extension.isIosSkipSigning());
+        putSetting(settings, "iosSignIdentity", extension.getIosSignIdentity());
+        putSetting(settings, "iosProvisioningProfile", extension.getIosProvisioningProfile());
+        putSetting(settings, "cacheDir", extension.getCacheDir());
+        if (project.hasProperty("mainClassName")) {
+            putSetting(settings, "mainClassName", project.property("mainClassName"));
+        }
+        return settings;
+    }
 
-        try {
-            result = repositorySystem.resolveArtifact(repositorySystemSession, request);
-        } catch (ArtifactResolutionException e) {
-            throw new GradleException(e.getMessage(), e);
+    private static void putSetting(Map<String, String> settings, String name, Object value) {
+        if (value != null) {
+            settings.put(name, value.toString());
         }
+    }
 
-        getLogger().debug(
-                "Resolved artifact " + artifact + " to " + result.getArtifact().getFile() + " from "
-                        + result.getRepository());
+    public File getInstallDir() {
+        return getInstallRoot();
+    }
 
-        return result.getArtifact();
+    /**
+     * Returns the {@code installDir} set in the {@code robovm} block or
+     * {@code build/robovm}.
+     */
+    protected File getInstallRoot() {
+        if (extension.getInstallDir() != null) {
+            return new File(extension.getInstallDir());
+        }
+        return new File(project.getBuildDir(), "robovm");
     }
 
-    protected Logger getRoboVMLogger() {
-        if (roboVMLogger == null) {
-            roboVMLogger = new Logger() {
-                @Override
-                public void debug(String s, Object... objects) {
-                    getLogger().debug(String.format(s, objects));
-                }
+    /**
+     * Returns the classpath entries to hand to the compiler. With
+     * {@code fingerprintClasspath} enabled JARs are replaced by copies whose
+     * modification times only change when their contents change, see
+     * {@link ClasspathFingerprints}.
+     */
+    protected List<File> getCompilerClasspath() {
+        List<File> classpath = new ArrayList<>(getClasspathEntries());
+        if (!extension.isFingerprintClasspath()) {
+            return classpath;
+        }
 
-                @Override
-                public void info(String s, Object... objects) {
-                    getLogger().info(String.format(s, objects));
-                }
+        long start = System.nanoTime();
+        ClasspathFingerprints fingerprints = new ClasspathFingerprints(getClasspathFingerprintsFile(), getLogger());
+        try {
+            // Staged JARs are shared by all projects so that they share the
+            // compiler's cache too
+            classpath = fingerprints.stage(classpath, getCaches().getClasspathDir());
+            fingerprints.save();
+        } catch (IOException e) {
+            throw new GradleException("Failed to fingerprint the RoboVM classpath", e);
+        } finally {
+            metrics.record("fingerprint", start);
+        }
+        return classpath;
+    }
 
-                @Override
-                public void warn(String s, Object... objects) {
-                    getLogger().warn(String.format(s, objects));
-                }
+    protected File getClasspathFingerprintsFile() {
+        return new File(project.getBuildDir(), "robovm.classpath/fingerprints.properties");
+    }
 
-                @Override
-                public void error(String s, Object... objects) {
-                    getLogger().error(String.format(s, objects));
-                }
-            };
+    protected Set<File> getClasspathEntries() {
+        Set<File> classpathEntries = new LinkedHashSet<>(project.getConfigurations().getByName("runtime").getFiles());
+        classpathEntries.add(new File(project.getBuildDir(), "classes/main"));
+        classpathEntries.add(new File(project.getBuildDir(), "resources/main"));
+
+        if (project.hasProperty("output.classesDir")) {
+            classpathEntries.add((File) project.property("output.classesDir"));
         }
 
-        return roboVMLogger;
+        return classpathEntries;
     }
 
-    private RepositorySystem createRepositorySystem() {
-        MavenServiceLocator locator = new MavenServiceLocator();
-        locator.addService(RepositoryConnectorFactory.class, WagonRepositoryConnectorFactory.class);
-        locator.setService(WagonProvider.class, ManualWagonProvider.class);
-
-        return locator.getService(RepositorySystem.class);
+    /**
+     * Returns the work directory the compiler uses for the target of this
+     * task. Work directories live below {@code build/robovm.tmp}, one per OS,
+     * arch and target type combination, and are kept between runs so that
+     * the compiler can reuse what it produced last time.
+     */
+    public File getWorkDir() {
+        CompilerSettings target = new CompilerSettings();
+        configureTarget(target);
+        Object arch = target.getArch();
+        if (target.getArchs() != null) {
+            StringBuilder sb = new StringBuilder();
+            for (Arch a : target.getArchs()) {
+                sb.append(sb.length() > 0 ? "_" : "").append(a);
+            }
+            arch = sb;
+        }
+        String key = (target.getOs() != null ? target.getOs() : "default") + "-"
+                + (arch != null ? arch : "default") + "-"
+                + (target.getTargetType() != null ? target.getTargetType() : "default");
+        return new File(new File(project.getBuildDir(), "robovm.tmp"), key);
     }
 
-    private RepositorySystemSession createRepositorySystemSession() {
-        LocalRepository localRepository = new LocalRepository(System.getProperty("user.home") + "/.m2/repository");
-        MavenRepositorySystemSession session = new MavenRepositorySystemSession();
-        session.setLocalRepositoryManager(repositorySystem.newLocalRepositoryManager(localRepository));
+    /**
+     * Creates the specified work directory and marks it as used. Work
+     * directories which haven't been used for {@link #TMP_DIR_MAX_AGE}
+     * milliseconds are pruned. The directory is only wiped if {@code clean}
+     * is set. Everything happens under a lock on the parent directory, so
+     * concurrent tasks, in this or another process, never see each other's
+     * directories half prepared.
+     */
+    protected File prepareTemporaryDirectory(File temporaryDirectory, boolean clean) {
+        File root = temporaryDirectory.getParentFile();
+        root.mkdirs();
+        synchronized (TMP_DIR_LOCK) {
+            try (FileChannel channel = new RandomAccessFile(new File(root, TMP_DIR_LOCK_FILE), "rw").getChannel();
+                    FileLock lock = channel.lock()) {
+
+                migrateTemporaryDirectories(root);
+                pruneTemporaryDirectories(root, temporaryDirectory);
+                if (clean) {
+                    FileUtils.deleteDirectory(temporaryDirectory);
+                }
+                temporaryDirectory.mkdirs();
+                FileUtils.touch(new File(temporaryDirectory, TMP_DIR_MARKER));
+            } catch (IOException e) {
+                throw new GradleException("Failed to prepare work directory " + temporaryDirectory, e);
+            }
+        }
 
-        return session;
+        getLogger().debug("Using RoboVM work directory " + temporaryDirectory);
+        return temporaryDirectory;
     }
 
-    private List<RemoteRepository> createRemoteRepositories() {
-        List<RemoteRepository> repositories = new ArrayList<>();
-        repositories.add(new RemoteRepository("maven-central", "default", "http://repo1.maven.org/maven2/"));
-        repositories.add(new RemoteRepository("oss.sonatype.org-snapshots", "default",
-                "https://oss.sonatype.org/content/repositories/snapshots/"));
+    /**
+     * Removes what the old flat {@code robovm.tmp} layout left behind, once.
+     * Must be called with the work directory lock held, as only then every
+     * directory without a marker is a leftover.
+     */
+    private void migrateTemporaryDirectories(File root) throws IOException {
+        File layoutMarker = new File(root, TMP_DIR_LAYOUT_MARKER);
+        if (layoutMarker.exists()) {
+            return;
+        }
+        File[] children = root.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                String name = child.getName();
+                if (name.equals(TMP_DIR_LOCK_FILE) || new File(child, TMP_DIR_MARKER).exists()) {
+                    continue;
+                }
+                getLogger().debug("Removing " + child + " left behind by the old RoboVM work directory layout");
+                FileUtils.deleteQuietly(child);
+            }
+        }
+        FileUtils.touch(layoutMarker);
+    }
 
-        return repositories;
+    private void pruneTemporaryDirectories(File root, File current) {
+        File[] children = root.listFiles();
+        if (children == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File child : children) {
+            if (child.equals(current)) {
+                continue;
+            }
+            File marker = new File(child, TMP_DIR_MARKER);
+            if (marker.exists() && now - marker.lastModified() > TMP_DIR_MAX_AGE) {
+                getLogger().debug("Pruning stale RoboVM work directory " + child);
+                FileUtils.deleteQuietly(child);
+            }
+        }
     }
 
-    private static void extractTarGz(File archive, File destDir) throws IOException {
-        TarArchiveInputStream in = null;
+    /**
+     * Returns the directory of the unpacked RoboVM distribution, waiting
+     * for the {@link DistributionPrefetch} to complete.
+     */
+    protected File unpack() throws GradleException {
+        long start = System.nanoTime();
         try {
-            in = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive)));
-            ArchiveEntry entry = null;
-            while ((entry = in.getNextEntry()) != null) {
-                File f = new File(destDir, entry.getName());
-                if (entry.isDirectory()) {
-                    f.mkdirs();
-                } else {
-                    f.getParentFile().mkdirs();
-                    OutputStream out = null;
-                    try {
-                        out = new FileOutputStream(f);
-                        IOUtils.copy(in, out);
-                    } finally {
-                        IOUtils.closeQuietly(out);
-                    }
-                }
-                f.setLastModified(entry.getLastModifiedDate().getTime());
-                if (entry instanceof TarArchiveEntry) {
-                    int mode = ((TarArchiveEntry) entry).getMode();
-                    if ((mode & 00100) > 0) {
-                        // Preserve execute permissions
-                        f.setExecutable(true, (mode & 00001) == 0);
-                    }
-                }
-            }
+            return getDistribution().await();
         } finally {
-            IOUtils.closeQuietly(in);
+            metrics.record("unpack", start);
         }
     }
 
-    public static class ManualWagonProvider implements WagonProvider {
+    /**
+     * Returns the {@link DistributionPrefetch} of the distribution this
+     * task uses.
+     */
+    protected DistributionPrefetch getDistribution() {
+        return DistributionPrefetch.get(project, RoboVMPlugin.getRoboVMVersion(), extension.getDistRepositories(),
+                extension.getDistMirror(), extension.isOffline());
+    }
 
-        @Override
-        public Wagon lookup(String roleHint) throws Exception {
-            if ("http".equals(roleHint) || "https".equals(roleHint)) {
-                return new HttpWagon();
-            }
+    protected Artifact resolveArtifact(String artifactLocator) throws GradleException {
+        return ArtifactResolver.get(project).resolveArtifact(artifactLocator, extension.getDistRepositories(),
+                extension.getDistMirror(), extension.isOffline(), getLogger());
+    }
 
-            return null;
-        }
+    protected RoboVMCaches getCaches() {
+        return new RoboVMCaches(project.getGradle().getGradleUserHomeDir());
+    }
 
-        @Override
-        public void release(Wagon wagon) {
-            // noop
+    protected Logger getRoboVMLogger() {
+        if (roboVMLogger == null) {
+            roboVMLogger = new GradleLoggerBridge(getLogger(), logSink);
         }
+
+        return roboVMLogger;
     }
 }
@@ -24,6 +24,7 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.target.ios.DeviceType;
 import org.robovm.compiler.target.ios.SimulatorLaunchParameters;
+import org.robovm.gradle.internal.CompilerSettings;
 
 /**
  *
@@ -32,12 +33,12 @@ public abstract class AbstractSimulatorTask extends AbstractRoboVMTask {
 
     protected void launch(DeviceType type) {
         try {
-            AppCompiler compiler = build(getOs(), getArch(), getTargetType());
-
             if (extension.isSkipLaunch()) {
                 return;
             }
 
+            AppCompiler compiler = createAppCompiler(createTargetSettings());
+
             Config config = compiler.getConfig();
             SimulatorLaunchParameters launchParameters = (SimulatorLaunchParameters) config.getTarget().createLaunchParameters();
             launchParameters.setDeviceType(type);
@@ -78,12 +79,17 @@ public abstract class AbstractSimulatorTask extends AbstractRoboVMTask {
                 launchParameters.setStderrFifo(stderrFifo);
             }
 
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
         } catch (Throwable t) {
             throw new GradleException("Failed to launch simulator", t);
         }
     }
 
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        settings.os(getOs()).arch(getArch()).targetType(getTargetType());
+    }
+
     protected abstract String getTargetType();
 
     protected abstract OS getOs();
@@ -91,8 +97,7 @@ public abstract class AbstractSimulatorTask extends AbstractRoboVMTask {
     protected abstract Arch getArch();
 
     protected DeviceType getDeviceType(DeviceType.DeviceFamily family) {
-        String deviceName = (String) project.getProperties().get("robovm.device.name");
-        String sdkVersion = (String) project.getProperties().get("robovm.sdk.version");
-        return DeviceType.getBestDeviceType(getArch(), getOs(), family, deviceName, sdkVersion);
+        return DeviceType.getBestDeviceType(getArch(), getOs(), family, extension.getDeviceName(),
+                extension.getSdkVersion());
     }
 }
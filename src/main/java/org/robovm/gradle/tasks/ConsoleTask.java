@@ -15,6 +15,22 @@
  */
 package org.robovm.gradle.tasks;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.gradle.api.GradleException;
 import org.robovm.compiler.AppCompiler;
 import org.robovm.compiler.config.Arch;
@@ -22,26 +38,146 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.target.ConsoleTarget;
 import org.robovm.compiler.target.LaunchParameters;
+import org.robovm.gradle.internal.CacheLocks;
+import org.robovm.gradle.internal.CompilerSettings;
 
 /**
  *
  */
 public class ConsoleTask extends AbstractRoboVMTask {
 
+    private static final long WATCH_QUIET_PERIOD = 300;
+
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        Arch arch = Arch.getDefaultArch();
+        if (extension.getArch() != null) {
+            arch = Arch.valueOf(extension.getArch());
+        }
+        settings.os(OS.getDefaultOS()).arch(arch).targetType(ConsoleTarget.TYPE);
+    }
+
     @Override
     public void invoke() {
         try {
-            Arch arch = Arch.getDefaultArch();
-            if (extension.getArch() != null) {
-                arch = Arch.valueOf(extension.getArch());
+            CompilerSettings settings = createTargetSettings();
+            AppCompiler compiler = createAppCompiler(settings);
+            if (extension.isWatch()) {
+                watch(settings, compiler.getConfig());
+                return;
             }
-
-            AppCompiler compiler = build(OS.getDefaultOS(), arch, ConsoleTarget.TYPE);
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget().createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
         } catch (Throwable t) {
             throw new GradleException("Failed to launch console application", t);
         }
     }
+
+    /**
+     * Launches the app and rebuilds and relaunches it whenever something
+     * changes in the main classes or resources directories, until the build
+     * is cancelled. The compiler only recompiles the classes which changed.
+     */
+    private void watch(CompilerSettings settings, Config config) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(new File(project.getBuildDir(), "classes/main").toPath());
+        dirs.add(new File(project.getBuildDir(), "resources/main").toPath());
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (Path dir : dirs) {
+                if (Files.isDirectory(dir)) {
+                    register(watchService, dir);
+                }
+            }
+
+            Process process = start(config);
+            try {
+                while (true) {
+                    awaitChanges(watchService);
+                    getLogger().lifecycle("Changes detected, rebuilding RoboVM app");
+                    stop(process);
+                    process = null;
+                    try {
+                        // Reuse the configuration, but pick up added and
+                        // removed classes
+                        config = config.builder().build();
+                        try (CacheLocks.Handle lock = lockCacheForCompile(settings, config.getOs(), config.getArchs())) {
+                            int worker = acquireWorker();
+                            try {
+                                long start = System.nanoTime();
+                                new AppCompiler(config).build();
+                                metrics.record("compile", start);
+                            } finally {
+                                releaseWorker(worker);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        getLogger().error("Failed to rebuild RoboVM app, waiting for further changes", e);
+                        continue;
+                    }
+                    process = start(config);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stop(process);
+            }
+        }
+    }
+
+    /**
+     * Waits for changes and registers any directories created meanwhile.
+     * Returns once no further changes arrived for
+     * {@link #WATCH_QUIET_PERIOD} milliseconds, so that a recompilation
+     * which touches many files causes a single rebuild.
+     */
+    private void awaitChanges(WatchService watchService) throws InterruptedException, IOException {
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    Path child = dir.resolve((Path) event.context());
+                    if (Files.isDirectory(child)) {
+                        register(watchService, child);
+                    }
+                }
+            }
+            key.reset();
+            key = watchService.poll(WATCH_QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void register(final WatchService watchService, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Process start(Config config) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return config.getTarget().launch(config.getTarget().createLaunchParameters());
+        } finally {
+            metrics.record("launch", start);
+        }
+    }
+
+    private void stop(Process process) {
+        if (process == null) {
+            return;
+        }
+        process.destroy();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
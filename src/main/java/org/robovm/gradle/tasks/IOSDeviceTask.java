@@ -22,6 +22,7 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.target.LaunchParameters;
 import org.robovm.compiler.target.ios.IOSTarget;
+import org.robovm.gradle.internal.CompilerSettings;
 
 /**
  *
@@ -29,21 +30,26 @@ import org.robovm.compiler.target.ios.IOSTarget;
  */
 public class IOSDeviceTask extends AbstractRoboVMTask {
 
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        Arch arch = Arch.thumbv7;
+        if (extension.getArch() != null && extension.getArch().equals(Arch.arm64.toString())) {
+            arch = Arch.arm64;
+        }
+        settings.os(OS.ios).arch(arch).targetType(IOSTarget.TYPE);
+    }
+
     @Override
     public void invoke() {
         try {
-            Arch arch = Arch.thumbv7;
-            if (extension.getArch() != null && extension.getArch().equals(Arch.arm64.toString())) {
-                arch = Arch.arm64;
-            }
-
-            AppCompiler compiler = build(OS.ios, arch, IOSTarget.TYPE);
             if (extension.isSkipLaunch()) {
                 return;
             }
+
+            AppCompiler compiler = createAppCompiler(createTargetSettings());
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget().createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
         } catch (Throwable t) {
             throw new GradleException("Failed to launch IOS Device", t);
         }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.TaskAction;
+import org.robovm.compiler.config.Config;
+import org.robovm.gradle.RoboVMPluginExtension;
+import org.robovm.gradle.internal.CacheMaintenance;
+
+/**
+ * Evicts entries from the compiler's cache directory according to
+ * {@code maxCacheSize} and {@code maxCacheAge} right away. Unlike the
+ * eviction after builds this also picks up entries compiled before their
+ * use was recorded, which means walking the whole cache directory.
+ */
+public class RoboVMCleanCacheTask extends DefaultTask {
+
+    @TaskAction
+    public void run() {
+        RoboVMPluginExtension extension = (RoboVMPluginExtension) getProject().getExtensions()
+                .getByName(RoboVMPluginExtension.NAME);
+        File cacheDir = extension.getCacheDir() != null
+                ? new File(extension.getCacheDir()) : Config.getDefaultCacheDir();
+        if (!cacheDir.exists()) {
+            getLogger().lifecycle("RoboVM cache " + cacheDir + " doesn't exist");
+            return;
+        }
+        String maxSize = extension.getMaxCacheSize();
+        int maxAge = extension.getMaxCacheAge();
+        if (maxSize == null && maxAge < 0) {
+            getLogger().lifecycle("Neither maxCacheSize nor maxCacheAge is set, nothing will be evicted");
+        }
+
+        CacheMaintenance maintenance = new CacheMaintenance(cacheDir, getLogger());
+        try {
+            int adopted = maintenance.adoptUntracked();
+            if (adopted > 0) {
+                getLogger().info("Found " + adopted + " RoboVM cache entries not in the index");
+            }
+            CacheMaintenance.Result result = maintenance.evict(
+                    maxSize != null ? CacheMaintenance.parseSize(maxSize) : -1,
+                    maxAge >= 0 ? TimeUnit.DAYS.toMillis(maxAge) : -1);
+            getLogger().lifecycle("RoboVM cache " + cacheDir + ": " + result);
+        } catch (IOException e) {
+            throw new GradleException("Failed to clean the RoboVM cache " + cacheDir, e);
+        }
+    }
+}
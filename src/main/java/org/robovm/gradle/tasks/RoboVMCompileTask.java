@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gradle.api.GradleException;
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.OS;
+import org.robovm.gradle.RoboVMPlugin;
+import org.robovm.gradle.internal.BuildOutputCache;
+import org.robovm.gradle.internal.CacheLocks;
+import org.robovm.gradle.internal.CacheMaintenance;
+import org.robovm.gradle.internal.ClasspathFingerprints;
+import org.robovm.gradle.internal.CompilerDaemon;
+import org.robovm.gradle.internal.CompilerSettings;
+import org.robovm.gradle.internal.RemoteObjectCache;
+
+/**
+ * Compiles the classpath of the target task's app into object files without
+ * linking them. The object files end up in the compiler's cache directory.
+ * When the {@code buildCache} has the linked executable for the current
+ * inputs it is restored instead and nothing is compiled. With an
+ * {@code objectCacheUrl} the object files of the JARs on the classpath are
+ * downloaded before compiling, and those compiled here may be uploaded.
+ */
+public class RoboVMCompileTask extends AbstractRoboVMStageTask {
+
+    static final String STAMP_NAME = ".robovm-compile";
+
+    @Override
+    protected String getStampName() {
+        return STAMP_NAME;
+    }
+
+    @Override
+    public void invoke() {
+        try {
+            CompilerSettings settings = createTargetSettings();
+            prepareTemporaryDirectory(settings.getTmpDir(), extension.isCleanTmp());
+
+            String cacheKey = null;
+            if (isBuildCacheEnabled(settings)) {
+                long start = System.nanoTime();
+                cacheKey = computeBuildCacheKey(settings);
+                boolean hit = false;
+                try {
+                    hit = createBuildOutputCache().load(cacheKey, settings.getTmpDir());
+                } catch (IOException e) {
+                    getLogger().warn("Ignoring unreadable RoboVM build cache entry " + cacheKey, e);
+                }
+                metrics.record("buildCacheLoad", start);
+                if (hit) {
+                    getLogger().info("Restored RoboVM executable from the build cache (" + cacheKey + ")");
+                    // Tells the link stage there's nothing left to do
+                    writeStamp(cacheKey);
+                    return;
+                }
+            }
+
+            getLogger().info("Compiling RoboVM app, this could take a while, especially the first time round");
+            settings.skipLinking(true);
+            OS os;
+            List<Arch> archs;
+            AppCompiler compiler = null;
+            if (extension.isDaemon()) {
+                os = settings.getOs();
+                archs = getTargetArchs(settings);
+            } else {
+                compiler = createAppCompiler(settings);
+                os = compiler.getConfig().getOs();
+                archs = compiler.getConfig().getArchs();
+            }
+
+            RemoteObjectCache remoteCache = null;
+            Map<String, String> remoteEntries = getRemoteCacheEntries(settings, os, archs);
+            if (remoteEntries != null) {
+                remoteCache = RemoteObjectCache.get(project, settings.getCacheDir(), extension.getObjectCacheUrl(),
+                        extension.isObjectCachePush());
+            }
+
+            // Other builds must neither read nor evict the entries the
+            // compiler writes to meanwhile
+            Set<String> misses = Collections.emptySet();
+            try (CacheLocks.Handle lock = lockCacheForCompile(settings, os, archs)) {
+                if (remoteCache != null) {
+                    long start = System.nanoTime();
+                    misses = remoteCache.prefetch(remoteEntries, getJarsLastModified(settings));
+                    metrics.record("objectCacheLoad", start);
+                }
+                if (compiler == null) {
+                    compileInDaemon(settings, CompilerDaemon.ACTION_BUILD);
+                } else {
+                    compile(compiler, false);
+                }
+                recordCacheUse(settings, os, archs);
+            }
+            if (remoteCache != null) {
+                remoteEntries.keySet().retainAll(misses);
+                remoteCache.uploadAsync(remoteEntries);
+            }
+            writeStamp(null);
+        } catch (IOException e) {
+            throw new GradleException("Error compiling RoboVM app", e);
+        }
+    }
+
+    /**
+     * Returns the entries of the JARs on the classpath for the specified OS
+     * and archs as paths relative to the cache directory mapped to their
+     * {@link RemoteObjectCache} keys, or {@code null} if there's no remote
+     * object cache or the OS or archs aren't known. The config files are
+     * part of the keys as they may change the target and bitcode settings.
+     */
+    private Map<String, String> getRemoteCacheEntries(CompilerSettings settings, OS os, List<Arch> archs)
+            throws IOException {
+
+        if (extension.getObjectCacheUrl() == null) {
+            return null;
+        }
+        if (os == null || archs == null || archs.isEmpty()) {
+            getLogger().info("The remote RoboVM object cache is only used when the OS and archs are known");
+            return null;
+        }
+        String version = RoboVMPlugin.getRoboVMVersion();
+        ClasspathFingerprints fingerprints = new ClasspathFingerprints(getClasspathFingerprintsFile(), getLogger());
+        List<String> targetSettings = settings.getObjectCacheKeyInputs();
+        for (File file : getConfigFiles()) {
+            targetSettings.add("config:" + file.getName() + "=" + fingerprints.fingerprint(file));
+        }
+        // Class directories change with every edit, so sharing them
+        // wouldn't pay off, and JARs are never compiled against them
+        Map<File, String> jarHashes = new LinkedHashMap<>();
+        for (File entry : getCachedClasspath(settings)) {
+            if (entry.isFile()) {
+                jarHashes.put(entry, fingerprints.fingerprint(entry));
+            }
+        }
+        String classpathHash = BuildOutputCache.key(new ArrayList<>(jarHashes.values()));
+        Map<String, String> entries = new HashMap<>();
+        for (Map.Entry<File, String> jar : jarHashes.entrySet()) {
+            for (Arch arch : archs) {
+                String path = CacheMaintenance.getEntryPaths(os, Collections.singletonList(arch),
+                        settings.isDebug(), Collections.singletonList(jar.getKey())).get(0);
+                entries.put(path, RemoteObjectCache.key(version, os, arch, settings.isDebug(), targetSettings,
+                        classpathHash, jar.getValue()));
+            }
+        }
+        fingerprints.save();
+        return entries;
+    }
+
+    /**
+     * Returns the modification time of the newest JAR on the classpath.
+     */
+    private long getJarsLastModified(CompilerSettings settings) {
+        long lastModified = 0;
+        for (File entry : getCachedClasspath(settings)) {
+            if (entry.isFile()) {
+                lastModified = Math.max(lastModified, entry.lastModified());
+            }
+        }
+        return lastModified;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.gradle.api.GradleException;
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.config.Config;
+import org.robovm.gradle.internal.CacheLocks;
+import org.robovm.gradle.internal.CompilerDaemon;
+import org.robovm.gradle.internal.CompilerSettings;
+import org.robovm.gradle.internal.LinkedCompilers;
+
+/**
+ * Links the object files produced by the {@link RoboVMCompileTask} into the
+ * executable of the target task's app, in the target's work directory.
+ * Newly linked executables are stored in the {@code buildCache}.
+ * <p>
+ * RoboVM has no entry point which only links, the linker needs the classes
+ * the compiler's dependency walk selects. The link stage therefore runs
+ * {@code AppCompiler.build()}, which finds every object file written by the
+ * compile stage up to date and only walks the dependencies and links. The
+ * compiler is then handed to an installing or archiving target through
+ * {@link LinkedCompilers}.
+ */
+public class RoboVMLinkTask extends AbstractRoboVMStageTask {
+
+    static final String STAMP_NAME = ".robovm-link";
+
+    @Override
+    protected String getStampName() {
+        return STAMP_NAME;
+    }
+
+    @Override
+    public void invoke() {
+        try {
+            CompilerSettings settings = createTargetSettings();
+            // The target installs or archives with this stage's compiler
+            settings.skipInstall(!(getTargetTask() instanceof AbstractRoboVMBuildTask));
+            prepareTemporaryDirectory(settings.getTmpDir(), false);
+
+            if (settings.isSkipLinking()) {
+                getLogger().info("Skipping linking of RoboVM app");
+                writeStamp(null);
+                return;
+            }
+
+            String cacheKey = null;
+            if (isBuildCacheEnabled(settings)) {
+                cacheKey = computeBuildCacheKey(settings);
+                if (cacheKey.equals(readStamp(RoboVMCompileTask.STAMP_NAME))) {
+                    getLogger().info("Using RoboVM executable restored from the build cache");
+                    writeStamp(cacheKey);
+                    return;
+                }
+            }
+
+            // Everything has been compiled by now, so this only links, which
+            // only reads the cache
+            if (extension.isDaemon()) {
+                try (CacheLocks.Handle lock = lockCache(settings, settings.getOs(), getTargetArchs(settings), true)) {
+                    compileInDaemon(settings, CompilerDaemon.ACTION_BUILD);
+                }
+            } else {
+                AppCompiler compiler = createAppCompiler(settings);
+                Config config = compiler.getConfig();
+                try (CacheLocks.Handle lock = lockCache(settings, config.getOs(), config.getArchs(), true)) {
+                    compile(compiler, true);
+                }
+                if (getTargetTask() instanceof AbstractRoboVMBuildTask) {
+                    LinkedCompilers.get(project).put(getWorkDir(), compiler);
+                }
+                if (cacheKey != null) {
+                    long start = System.nanoTime();
+                    try {
+                        createBuildOutputCache().store(cacheKey, config.getTmpDir(),
+                                Collections.singletonList(config.getExecutableName()));
+                    } catch (IOException e) {
+                        getLogger().warn("Failed to store RoboVM executable in the build cache", e);
+                    } finally {
+                        metrics.record("buildCacheStore", start);
+                    }
+                }
+            }
+            getLogger().info("Compile RoboVM app completed.");
+            writeStamp(cacheKey);
+        } catch (IOException e) {
+            throw new GradleException("Error building RoboVM executable for app", e);
+        }
+    }
+}
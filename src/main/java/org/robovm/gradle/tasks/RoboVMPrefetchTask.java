@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.TaskAction;
+import org.robovm.gradle.RoboVMPlugin;
+import org.robovm.gradle.RoboVMPluginExtension;
+import org.robovm.gradle.internal.DistributionPrefetch;
+
+/**
+ * Resolves and unpacks the RoboVM distribution. The plugin starts doing so
+ * in the background as soon as the task graph contains a RoboVM task,
+ * including this one, so this task only waits for that to complete. Run it
+ * on its own to warm up a fresh machine.
+ */
+public class RoboVMPrefetchTask extends DefaultTask {
+
+    public DistributionPrefetch getDistribution() {
+        RoboVMPluginExtension extension = (RoboVMPluginExtension) getProject().getExtensions()
+                .getByName(RoboVMPluginExtension.NAME);
+        return DistributionPrefetch.get(getProject(), RoboVMPlugin.getRoboVMVersion(),
+                extension.getDistRepositories(), extension.getDistMirror(), extension.isOffline());
+    }
+
+    @TaskAction
+    public void run() {
+        getLogger().info("RoboVM distribution available in " + getDistribution().await());
+    }
+}
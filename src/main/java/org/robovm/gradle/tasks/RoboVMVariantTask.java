@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.OS;
+import org.robovm.gradle.RoboVMVariant;
+import org.robovm.gradle.internal.CompilerSettings;
+
+/**
+ * Installs or archives a {@link RoboVMVariant}. Variants have a work
+ * directory of their own and install to {@code build/robovm/<variant>}
+ * unless they specify an install directory.
+ */
+public class RoboVMVariantTask extends AbstractRoboVMBuildTask {
+
+    private RoboVMVariant variant;
+
+    public RoboVMVariant getVariant() {
+        return variant;
+    }
+
+    public void setVariant(RoboVMVariant variant) {
+        this.variant = variant;
+    }
+
+    @Override
+    protected boolean shouldArchive() {
+        return variant.isArchive();
+    }
+
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        super.configureTarget(settings);
+        if (variant.getOs() != null) {
+            settings.os(OS.valueOf(variant.getOs()));
+        }
+        if (variant.getArchs() != null) {
+            List<Arch> archs = new ArrayList<>();
+            for (String s : variant.getArchs().trim().split(":")) {
+                archs.add(Arch.valueOf(s));
+            }
+            settings.archs(archs);
+        } else if (variant.getArch() != null) {
+            settings.arch(Arch.valueOf(variant.getArch())).archs(null);
+        }
+        if (variant.getTargetType() != null) {
+            settings.targetType(variant.getTargetType());
+        }
+        if (variant.getEnableBitcode() != null) {
+            settings.enableBitcode(variant.getEnableBitcode());
+        }
+    }
+
+    @Override
+    protected String getTargetType() {
+        return variant.getTargetType();
+    }
+
+    @Override
+    public File getWorkDir() {
+        return new File(new File(project.getBuildDir(), "robovm.tmp"), "variant-" + variant.getName());
+    }
+
+    @Override
+    public File getInstallDir() {
+        if (variant.getInstallDir() != null) {
+            return project.file(variant.getInstallDir());
+        }
+        return new File(getInstallRoot(), variant.getName());
+    }
+
+    @Override
+    protected File getRoboVMPropertiesFile() {
+        return variant.getPropertiesFile() != null ? project.file(variant.getPropertiesFile()) : super.getRoboVMPropertiesFile();
+    }
+
+    @Override
+    protected File getRoboVMConfigFile() {
+        return variant.getConfigFile() != null ? project.file(variant.getConfigFile()) : super.getRoboVMConfigFile();
+    }
+
+    @Override
+    public Map<String, String> getRoboVMSettings() {
+        Map<String, String> settings = super.getRoboVMSettings();
+        CompilerSettings target = new CompilerSettings();
+        configureTarget(target);
+        settings.put("variant", variant.getName());
+        settings.put("variant.target", target.getCacheKeyInputs().toString());
+        settings.put("variant.archive", String.valueOf(variant.isArchive()));
+        return settings;
+    }
+}
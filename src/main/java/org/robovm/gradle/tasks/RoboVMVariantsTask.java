@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.tasks;
+
+import org.gradle.api.DefaultTask;
+import org.robovm.gradle.RoboVMVariant;
+
+/**
+ * Builds all {@link RoboVMVariant}s of a project by depending on their
+ * {@link RoboVMVariantTask}s, which depend on their compile and link
+ * stages. Gradle runs the tasks of a project one after the other, so the
+ * variants of one project are built in turn, each with full up-to-date
+ * checking. Variants declared in different projects are built concurrently
+ * when Gradle runs with {@code --parallel}.
+ */
+public class RoboVMVariantsTask extends DefaultTask {
+
+    /**
+     * Adds the task which installs or archives a variant.
+     */
+    public void addVariant(RoboVMVariantTask variantTask) {
+        dependsOn(variantTask);
+    }
+}
@@ -22,22 +22,29 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.target.LaunchParameters;
 import org.robovm.compiler.target.ios.TVOSTarget;
+import org.robovm.gradle.internal.CompilerSettings;
 
 /**
  *
  */
 public class TVOSDeviceTask extends AbstractRoboVMTask {
 
+    @Override
+    protected void configureTarget(CompilerSettings settings) {
+        settings.os(OS.tvos).arch(Arch.arm64).targetType(TVOSTarget.TYPE);
+    }
+
     @Override
     public void invoke() {
         try {
-            AppCompiler compiler = build(OS.tvos, Arch.arm64, TVOSTarget.TYPE);
             if (extension.isSkipLaunch()) {
                 return;
             }
+
+            AppCompiler compiler = createAppCompiler(createTargetSettings());
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget().createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
         } catch (Throwable t) {
             throw new GradleException("Failed to launch tvOS device", t);
         }
@@ -27,6 +27,10 @@ import org.robovm.gradle.tasks.ArchiveTask
 import org.robovm.gradle.tasks.IOSDeviceTask
 import org.robovm.gradle.tasks.IPadSimulatorTask
 import org.robovm.gradle.tasks.IPhoneSimulatorTask
+import org.robovm.gradle.tasks.RoboVMCompileTask
+import org.robovm.gradle.tasks.RoboVMLinkTask
+import org.robovm.gradle.tasks.RoboVMPrefetchTask
+import org.robovm.gradle.tasks.RoboVMVariantTask
 
 import static org.junit.Assert.*
 
@@ -168,6 +172,155 @@ class RoboVMPluginTest {
         assertTrue(project.tasks.createIPA instanceof ArchiveTask);
     }
     
+    @Test
+    public void testProductsAreDeclaredAsOutputs() {
+        project.ext.mainClassName = 'com.example.Main'
+        new File(project.projectDir, 'robovm.xml').text =
+                '<config><executableName>Example</executableName><imageName>ExampleImage</imageName></config>'
+
+        assertEquals(new File(project.buildDir, 'robovm'), project.tasks.robovmInstall.installDir)
+        assertEquals([new File(project.buildDir, 'robovm/Example.app')] as Set,
+                project.tasks.robovmInstall.outputs.files.files)
+        assertEquals([new File(project.buildDir, 'robovm/ExampleImage.ipa')] as Set,
+                project.tasks.createIPA.outputs.files.files)
+    }
+
+    @Test
+    public void testExplicitInstallDirIsKept() {
+        project.ext.mainClassName = 'com.example.Main'
+        project.robovm {
+            installDir new File(project.projectDir, 'dist').absolutePath
+        }
+
+        assertEquals(new File(project.projectDir, 'dist'), project.tasks.robovmInstall.installDir)
+        assertEquals([new File(project.projectDir, 'dist/com.example.Main.app')] as Set,
+                project.tasks.robovmInstall.outputs.files.files)
+    }
+
+    @Test
+    public void testBuildTasksHaveDistinctOutputs() {
+        project.ext.mainClassName = 'com.example.Main'
+        Set<File> install = project.tasks.robovmInstall.outputs.files.files
+        Set<File> archive = project.tasks.robovmArchive.outputs.files.files
+        Set<File> ipa = project.tasks.createIPA.outputs.files.files
+        assertFalse(install.isEmpty())
+        assertFalse(archive.isEmpty())
+        assertTrue(install.intersect(archive).isEmpty())
+        assertTrue(install.intersect(ipa).isEmpty())
+        // createIPA is an alias of robovmArchive and produces the same IPA
+        assertEquals(archive, ipa)
+    }
+
+    @Test
+    public void testRoboVMSettingsAreDeclaredAsInputs() {
+        project.robovm {
+            iosSkipSigning true
+            keychainPassword 'secret'
+        }
+
+        Map<String, String> settings = project.tasks.robovmInstall.roboVMSettings
+        assertEquals('true', settings.iosSkipSigning)
+        assertFalse(settings.containsValue('secret'))
+    }
+
+    @Test
+    public void testLaunchDependsOnCompileAndLinkStages() {
+        Task link = project.tasks.robovmLinkIPhoneSimulator
+        Task compile = project.tasks.robovmCompileIPhoneSimulator
+
+        Task launch = project.tasks.launchIPhoneSimulator
+        assertTrue(launch.taskDependencies.getDependencies(launch).contains(link))
+        assertTrue(link.taskDependencies.getDependencies(link).contains(compile))
+        assertEquals(new File(project.buildDir, 'robovm.tmp/ios-x86_64-ios/.robovm-link'), link.stampFile)
+    }
+
+    @Test
+    public void testPropertiesSetDuringConfigurationAreSeen() {
+        RoboVMPluginExtension extension = project.robovm
+        assertFalse(extension.debug)
+        assertNull(extension.arch)
+
+        // Set by a build script after something looked them up
+        project.ext['robovm.debug'] = 'true'
+        project.ext['robovm.arch'] = 'arm64'
+        assertTrue(extension.debug)
+        assertEquals('arm64', extension.arch)
+    }
+
+    @Test
+    public void testStageTasksAreCreatedOnDemand() {
+        assertFalse(project.tasks.names.contains('robovmLinkConsole'))
+        assertNotNull(project.tasks.findByName('robovmLinkConsole'))
+        assertNull(project.tasks.findByName('robovmLinkUnknown'))
+    }
+
+    @Test
+    public void testBuildTasksHaveStagesOfTheirOwn() {
+        Set<File> workDirs = new HashSet<>()
+        ['CreateIPA': 'createIPA', 'Archive': 'robovmArchive', 'Install': 'robovmInstall'].each { suffix, name ->
+            Task task = project.tasks.getByName(name)
+            RoboVMLinkTask link = project.tasks.getByName('robovmLink' + suffix)
+            RoboVMCompileTask compile = project.tasks.getByName('robovmCompile' + suffix)
+            assertTrue(task.taskDependencies.getDependencies(task).contains(link))
+            assertTrue(link.taskDependencies.getDependencies(link).contains(compile))
+            assertSame(task, link.targetTask)
+            assertSame(task, compile.targetTask)
+            assertEquals(task.workDir, link.workDir)
+            assertEquals(task.installDir, link.installDir)
+            workDirs.add(task.workDir)
+        }
+        assertEquals(3, workDirs.size())
+        assertNull(project.tasks.findByName('robovmLinkApp'))
+    }
+
+    @Test
+    public void testPrefetchTaskSharesDistributionWithRoboVMTasks() {
+        RoboVMPrefetchTask prefetch = project.tasks.robovmPrefetch
+        ArchiveTask archive = project.tasks.robovmArchive
+        assertSame(prefetch.distribution, archive.distribution)
+    }
+
+    @Test
+    public void testVariantsCreateTasks() {
+        project.robovm {
+            variants {
+                iosArm64 {
+                    os = 'ios'
+                    arch = 'arm64'
+                    targetType = 'ios'
+                }
+            }
+        }
+
+        RoboVMVariantTask task = project.tasks.robovmIosArm64Variant
+        assertEquals('iosArm64', task.variant.name)
+        assertEquals(new File(project.buildDir, 'robovm/iosArm64'), task.installDir)
+        assertTrue(task.taskDependencies.getDependencies(task).contains(project.tasks.robovmLinkIosArm64Variant))
+        assertNotNull(project.tasks.robovmCompileIosArm64Variant)
+        Task variants = project.tasks.robovmVariants
+        assertTrue(variants.taskDependencies.getDependencies(variants).contains(task))
+    }
+
+    @Test
+    public void testVariantPathsAreRelativeToTheProject() {
+        project.robovm {
+            variants {
+                tvos {
+                    os = 'ios'
+                    arch = 'arm64'
+                    installDir = 'dist/tvos'
+                    propertiesFile = 'tvos/robovm.properties'
+                    configFile = 'tvos/robovm.xml'
+                }
+            }
+        }
+
+        RoboVMVariantTask task = project.tasks.robovmTvosVariant
+        assertEquals(project.file('dist/tvos'), task.installDir)
+        assertEquals(project.file('tvos/robovm.properties'), task.roboVMPropertiesFile)
+        assertEquals(project.file('tvos/robovm.xml'), task.roboVMConfigFile)
+    }
+
     @Test
     public void testUnpackDistribution() {
         ArchiveTask task = project.tasks.createIPA;
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class BuildOutputCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    @Test
+    public void testKeyDependsOnInputs() {
+        assertEquals(BuildOutputCache.key(['os=ios', 'arch=arm64']), BuildOutputCache.key(['os=ios', 'arch=arm64']))
+        assertNotEquals(BuildOutputCache.key(['os=ios', 'arch=arm64']), BuildOutputCache.key(['os=ios', 'arch=thumbv7']))
+    }
+
+    @Test
+    public void testMissReturnsFalse() {
+        BuildOutputCache cache = new BuildOutputCache(tmp.newFolder('cache'), null, false, Logging.getLogger(getClass()))
+        File target = tmp.newFolder('target')
+        assertFalse(cache.load('abc', target))
+        assertEquals(0, target.list().length)
+    }
+
+    @Test
+    public void testStoredEntryIsRestoredInAnotherDirectory() {
+        BuildOutputCache cache = new BuildOutputCache(tmp.newFolder('cache'), null, false, Logging.getLogger(getClass()))
+        File agent1 = tmp.newFolder('agent1')
+        File executable = new File(agent1, 'Main')
+        executable.text = 'linked executable'
+        executable.setExecutable(true)
+        new File(agent1, 'Info.plist').text = 'plist'
+        String key = BuildOutputCache.key(['version=1.8.0', 'os=ios'])
+        cache.store(key, agent1, ['Main', 'Info.plist'])
+
+        File agent2 = tmp.newFolder('agent2')
+        assertTrue(cache.load(key, agent2))
+        File restored = new File(agent2, 'Main')
+        assertEquals('linked executable', restored.text)
+        assertTrue(restored.canExecute())
+        assertEquals('plist', new File(agent2, 'Info.plist').text)
+        assertFalse(new File(agent2, 'Info.plist').canExecute())
+    }
+
+    @Test
+    public void testBase64() {
+        assertEquals('', BuildOutputCache.base64(new byte[0]))
+        assertEquals('dQ==', BuildOutputCache.base64('u'.bytes))
+        assertEquals('dTo=', BuildOutputCache.base64('u:'.bytes))
+        assertEquals('dXNlcjpwYXNzd29yZA==', BuildOutputCache.base64('user:password'.bytes))
+        assertEquals('YWJj', BuildOutputCache.base64('abc'.bytes))
+    }
+
+    @Test
+    public void testUnusedEntriesAreRemovedWhenStoring() {
+        File dir = tmp.newFolder('cache')
+        BuildOutputCache cache = new BuildOutputCache(dir, null, false, Logging.getLogger(getClass()))
+        File agent = tmp.newFolder('agent')
+        new File(agent, 'Main').text = 'linked executable'
+        long monthAgo = System.currentTimeMillis() - 31L * 24 * 60 * 60 * 1000
+
+        cache.store('old', agent, ['Main'])
+        cache.store('used', agent, ['Main'])
+        new File(dir, 'old.zip').setLastModified(monthAgo)
+        new File(dir, 'used.zip').setLastModified(monthAgo)
+        File abandoned = new File(dir, 'killed.zip.tmp-123')
+        abandoned.text = 'partial'
+        abandoned.setLastModified(monthAgo)
+        assertTrue(cache.load('used', tmp.newFolder('restored')))
+
+        cache.store('new', agent, ['Main'])
+
+        assertFalse(new File(dir, 'old.zip').exists())
+        assertFalse(abandoned.exists())
+        assertTrue(new File(dir, 'used.zip').exists())
+        assertTrue(new File(dir, 'new.zip').exists())
+    }
+}
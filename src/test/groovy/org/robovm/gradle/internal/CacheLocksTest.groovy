@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+import org.gradle.api.logging.Logging
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class CacheLocksTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private CacheLocks locks
+    private ExecutorService executor = Executors.newSingleThreadExecutor()
+
+    @Before
+    public void setUp() {
+        locks = CacheLocks.get(tmp.root)
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow()
+    }
+
+    /**
+     * Runs on another thread, as the in-process locks are held per thread.
+     */
+    private <T> T inBackground(Closure<T> closure) {
+        return executor.submit(closure as Callable<T>).get(10, TimeUnit.SECONDS)
+    }
+
+    @Test
+    public void testSharedEntriesCanBeLockedConcurrently() {
+        CacheLocks.Handle first = locks.lock(['ios/arm64/release/a.jar'], ['ios/arm64/release/robovm-rt.jar'],
+                Logging.getLogger(getClass()))
+        inBackground {
+            CacheLocks.Handle second = locks.lock(['ios/arm64/release/b.jar'], ['ios/arm64/release/robovm-rt.jar'],
+                    Logging.getLogger(getClass()))
+            assertNull(locks.tryLock('ios/arm64/release/robovm-rt.jar'))
+            assertNull(locks.tryLock('ios/arm64/release/a.jar'))
+            second.close()
+        }
+        first.close()
+
+        inBackground {
+            CacheLocks.Handle evict = locks.tryLock('ios/arm64/release/robovm-rt.jar')
+            assertNotNull(evict)
+            evict.close()
+        }
+    }
+
+    @Test
+    public void testExclusiveEntriesAreWaitedFor() {
+        CacheLocks.Handle first = locks.lock(['ios/arm64/release/a.jar'], [], Logging.getLogger(getClass()))
+        Future<Boolean> second = executor.submit({
+            locks.lock([], ['ios/arm64/release/a.jar'], Logging.getLogger(getClass())).close()
+            return true
+        } as Callable<Boolean>)
+        Thread.sleep(200)
+        assertFalse(second.isDone())
+
+        first.close()
+        assertTrue(second.get(10, TimeUnit.SECONDS))
+    }
+
+    @Test
+    public void testKeysAreSpreadOverManyStripes() {
+        Set<Integer> stripes = new HashSet<>()
+        for (int i = 0; i < 200; i++) {
+            stripes.add(CacheLocks.stripe("ios/arm64/release/Users/ci/.m2/lib-" + i + ".jar"))
+        }
+        assertTrue(stripes.size() > 190)
+    }
+
+    @Test
+    public void testLockingManyKeysKeepsOneFileOpen() {
+        File fds = new File('/proc/self/fd')
+        int fdsBefore = fds.isDirectory() ? fds.list().length : 0
+        List<String> exclusive = (0..<3000).collect { "ios/arm64/release/lib-${it}.jar".toString() }
+        List<String> shared = (0..<3000).collect { "ios/arm64/debug/lib-${it}.jar".toString() }
+        inBackground {
+            CacheLocks.Handle handle = locks.lock(exclusive, shared, Logging.getLogger(getClass()))
+            assertEquals(1, locks.openFiles())
+            if (fds.isDirectory()) {
+                assertTrue(fds.list().length - fdsBefore < 10)
+            }
+            handle.close()
+        }
+        assertEquals(0, locks.openFiles())
+        assertEquals([CacheLocks.LOCK_FILE_NAME], new File(tmp.root, CacheLocks.LOCKS_DIR_NAME).list() as List)
+
+        // The stripes were released
+        inBackground {
+            CacheLocks.Handle evict = locks.tryLock('ios/arm64/release/lib-42.jar')
+            assertNotNull(evict)
+            evict.close()
+        }
+    }
+}
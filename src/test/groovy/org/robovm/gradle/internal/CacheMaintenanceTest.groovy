@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class CacheMaintenanceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    @Test
+    public void testEntriesAreUpToDateWithTheStampsRecordedForThem() {
+        CacheMaintenance maintenance = new CacheMaintenance(tmp.root, Logging.getLogger(getClass()))
+        new File(tmp.root, 'ios/arm64/release/a.jar').mkdirs()
+        new File(tmp.root, 'ios/arm64/release/classes').mkdirs()
+        maintenance.recordUse(['ios/arm64/release/a.jar': '1.0/100/1000', 'ios/arm64/release/classes': null,
+                'ios/arm64/release/missing.jar': '1.0/100/1000'])
+
+        Map<String, String> stamps = ['ios/arm64/release/a.jar': '1.0/100/1000', 'ios/arm64/release/classes': null,
+                'ios/arm64/release/missing.jar': '1.0/100/1000']
+        assertEquals(['ios/arm64/release/a.jar'] as Set, maintenance.getUpToDate(stamps))
+
+        stamps['ios/arm64/release/a.jar'] = '1.0/100/2000'
+        assertEquals([] as Set, maintenance.getUpToDate(stamps))
+    }
+
+    @Test
+    public void testEvictionSkipsLockedEntries() {
+        CacheMaintenance maintenance = new CacheMaintenance(tmp.root, Logging.getLogger(getClass()))
+        File a = new File(tmp.root, 'ios/arm64/release/a.jar')
+        File b = new File(tmp.root, 'ios/arm64/release/b.jar')
+        [a, b].each {
+            it.mkdirs()
+            new File(it, 'A.class.o').text = 'object'
+            it.setLastModified(System.currentTimeMillis() - 10 * CacheMaintenance.IN_USE_MILLIS)
+        }
+        assertEquals(2, maintenance.adoptUntracked())
+
+        CacheLocks.Handle lock = CacheLocks.get(tmp.root).lock([], ['ios/arm64/release/a.jar'],
+                Logging.getLogger(getClass()))
+        try {
+            assertEquals(1, maintenance.evict(-1, CacheMaintenance.IN_USE_MILLIS).getEvicted())
+        } finally {
+            lock.close()
+        }
+        assertTrue(a.isDirectory())
+        assertFalse(b.exists())
+    }
+}
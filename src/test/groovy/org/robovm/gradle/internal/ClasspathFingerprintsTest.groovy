@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class ClasspathFingerprintsTest {
+
+    static final long DAY = 24L * 60 * 60 * 1000
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private ClasspathFingerprints create(File indexFile) {
+        return new ClasspathFingerprints(indexFile, Logging.getLogger(getClass()))
+    }
+
+    private File jar(String name, String contents) {
+        File f = tmp.newFile(name)
+        f.text = contents
+        return f
+    }
+
+    @Test
+    public void testStagedCopyKeepsItsTimeWhenContentsAreUnchanged() {
+        File indexFile = new File(tmp.root, 'index/fingerprints.properties')
+        File stageRoot = tmp.newFolder('classpath')
+        File a = jar('a.jar', 'a')
+
+        File staged = create(indexFile).stage([a], stageRoot)[0]
+        staged.setLastModified(staged.lastModified() - DAY)
+        long stagedTime = staged.lastModified()
+
+        // Downloaded again with the same contents
+        a.setLastModified(a.lastModified() + 5000)
+        assertEquals(staged, create(indexFile).stage([a], stageRoot)[0])
+        assertEquals(stagedTime, staged.lastModified())
+    }
+
+    @Test
+    public void testConcurrentSavesAreMerged() {
+        File indexFile = new File(tmp.root, 'index/fingerprints.properties')
+        File a = jar('a.jar', 'a')
+        File b = jar('b.jar', 'b')
+
+        ClasspathFingerprints first = create(indexFile)
+        ClasspathFingerprints second = create(indexFile)
+        String hashA = first.fingerprint(a)
+        String hashB = second.fingerprint(b)
+        first.save()
+        second.save()
+
+        Properties index = new Properties()
+        indexFile.withInputStream { index.load(it) }
+        assertTrue(index.getProperty(a.absolutePath).endsWith(hashA))
+        assertTrue(index.getProperty(b.absolutePath).endsWith(hashB))
+    }
+
+    @Test
+    public void testUnusedStagedCopiesAreRemoved() {
+        File indexFile = new File(tmp.root, 'index/fingerprints.properties')
+        File stageRoot = tmp.newFolder('classpath')
+        File a = jar('a.jar', 'a')
+        File b = jar('b.jar', 'b')
+
+        List<File> staged = create(indexFile).stage([a, b], stageRoot)
+        File dirA = staged[0].parentFile
+        File dirB = staged[1].parentFile
+        dirA.setLastModified(System.currentTimeMillis() - 31 * DAY)
+        dirB.setLastModified(System.currentTimeMillis() - 31 * DAY)
+
+        create(indexFile).stage([b], stageRoot)
+
+        assertFalse(dirA.exists())
+        assertTrue(staged[1].isFile())
+        assertTrue(System.currentTimeMillis() - dirB.lastModified() < DAY)
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.junit.Rule
+import org.robovm.compiler.Version
+import org.robovm.compiler.config.Config
+import org.robovm.compiler.log.Logger
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class CompilerDaemonTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private Properties startDaemon(File dir) {
+        return startDaemon(new CompilerDaemon(dir, 30000), dir)
+    }
+
+    private Properties startDaemon(CompilerDaemon daemon, File dir) {
+        Thread thread = new Thread({ daemon.run() } as Runnable)
+        thread.daemon = true
+        thread.start()
+        File infoFile = new File(dir, CompilerDaemon.INFO_FILE_NAME)
+        long deadline = System.currentTimeMillis() + 10000
+        while (!infoFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50)
+        }
+        return CompilerDaemonClient.readInfoFile(infoFile)
+    }
+
+    private static Socket connect(Properties info) {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), info.getProperty('port') as int)
+        socket.soTimeout = 10000
+        return socket
+    }
+
+    @Test
+    public void testConnectionWithInvalidTokenIsClosedBeforeDeserializing() {
+        Properties info = startDaemon(tmp.newFolder('daemon'))
+        Socket socket = connect(info)
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.outputStream))
+            out.writeUTF('not-the-token')
+            new ObjectOutputStream(out).with {
+                writeObject(new CompilerDaemon.Request(null, null, CompilerDaemon.ACTION_BUILD, 'debug'))
+                flush()
+            }
+            try {
+                assertEquals(-1, socket.inputStream.read())
+            } catch (SocketException reset) {
+                // Closed with the request unread
+            }
+        } finally {
+            socket.close()
+        }
+    }
+
+    @Test
+    public void testOnlyRequestClassesAreDeserialized() {
+        Properties info = startDaemon(tmp.newFolder('daemon'))
+        Socket socket = connect(info)
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.outputStream))
+            out.writeUTF(info.getProperty('token'))
+            new ObjectOutputStream(out).with {
+                writeObject(new HashMap<String, String>())
+                flush()
+            }
+            ObjectInputStream in = new ObjectInputStream(socket.inputStream)
+            try {
+                in.readObject()
+                fail('Expected the connection to be closed')
+            } catch (EOFException expected) {
+            }
+        } finally {
+            socket.close()
+        }
+
+        // The daemon keeps serving
+        connect(info).close()
+    }
+
+    @Test
+    public void testConfigIsReusedUntilTheSettingsChange() {
+        File dir = tmp.newFolder('daemon')
+        CountingDaemon daemon = new CountingDaemon(dir)
+        Properties info = startDaemon(daemon, dir)
+        File projectDir = tmp.newFolder('project')
+        File classes = tmp.newFolder('classes')
+        CompilerSettings settings = new CompilerSettings().projectDir(projectDir).classpath([classes])
+
+        assertTrue(build(info, settings).success)
+        assertTrue(build(info, settings).success)
+        assertEquals(1, daemon.configs)
+        assertEquals(2, daemon.builds)
+
+        new File(classes, 'Main.class').text = 'changed'
+        assertTrue(build(info, settings).success)
+        assertEquals(2, daemon.configs)
+
+        assertTrue(build(info, new CompilerSettings().projectDir(projectDir).classpath([classes]).debug(true, 7778)).success)
+        assertEquals(3, daemon.configs)
+    }
+
+    private static CompilerDaemon.Response build(Properties info, CompilerSettings settings) {
+        Socket socket = connect(info)
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.outputStream))
+            out.writeUTF(info.getProperty('token'))
+            new ObjectOutputStream(out).with {
+                writeObject(new CompilerDaemon.Request(Version.getVersion(), settings,
+                        CompilerDaemon.ACTION_BUILD, 'debug'))
+                flush()
+            }
+            ObjectInputStream in = new ObjectInputStream(socket.inputStream)
+            while (true) {
+                Object o = in.readObject()
+                if (o instanceof CompilerDaemon.Response) {
+                    return o
+                }
+            }
+        } finally {
+            socket.close()
+        }
+    }
+
+    static class CountingDaemon extends CompilerDaemon {
+        volatile int configs
+        volatile int builds
+
+        CountingDaemon(File dir) {
+            super(dir, 30000)
+        }
+
+        @Override
+        Config buildConfig(CompilerSettings settings, Logger logger) {
+            configs++
+            return null
+        }
+
+        @Override
+        void build(Config config) {
+            builds++
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class CompilerSettingsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    @Test
+    public void testLinkedFilesAreFoundInTheConfigFile() {
+        File projectDir = tmp.newFolder('project')
+        new File(projectDir, 'libs').mkdirs()
+        File lib = new File(projectDir, 'libs/libfoo.a')
+        lib.text = 'archive'
+        File frameworks = new File(projectDir, 'frameworks')
+        new File(frameworks, 'Foo.framework').mkdirs()
+        new File(projectDir, 'robovm.properties').text = 'libDir=libs\n'
+        new File(projectDir, 'robovm.xml').text = '''<config>
+  <libs>
+    <lib>${libDir}/libfoo.a</lib>
+    <lib>z</lib>
+    <lib force="false">libs/missing.a</lib>
+  </libs>
+  <frameworkPaths>
+    <path>frameworks</path>
+  </frameworkPaths>
+  <forceLinkClasses>
+    <pattern>com.example.**</pattern>
+  </forceLinkClasses>
+</config>
+'''
+
+        CompilerSettings settings = new CompilerSettings().projectDir(projectDir)
+        assertEquals([lib, frameworks]*.canonicalFile, settings.linkedFiles*.canonicalFile)
+    }
+
+    @Test
+    public void testNoConfigFileMeansNoLinkedFiles() {
+        CompilerSettings settings = new CompilerSettings().projectDir(tmp.newFolder('project'))
+        assertTrue(settings.linkedFiles.isEmpty())
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class ConfigFileCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    @Test
+    public void testPropertiesAreHandedOutAsCopies() {
+        File file = tmp.newFile('robovm.properties')
+        file.text = 'app.name=Foo\n'
+        ConfigFileCache cache = new ConfigFileCache()
+
+        Properties first = cache.getProperties(file)
+        first.setProperty('app.name', 'Changed')
+        assertEquals('Foo', cache.getProperties(file).getProperty('app.name'))
+    }
+
+    @Test
+    public void testChangedFilesAreReadAgain() {
+        File file = tmp.newFile('robovm.xml')
+        file.text = '<config/>'
+        ConfigFileCache cache = new ConfigFileCache()
+        assertEquals('<config/>', cache.getText(file))
+
+        file.text = '<config><os>ios</os></config>'
+        file.setLastModified(file.lastModified() + 2000)
+        assertEquals('<config><os>ios</os></config>', cache.getText(file))
+    }
+}
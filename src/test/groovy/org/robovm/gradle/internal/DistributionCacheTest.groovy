@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.zip.GZIPOutputStream
+
+import static org.junit.Assert.*
+
+class DistributionCacheTest {
+
+    static final String VERSION = '1.14.1'
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private File createDist(String name, String contents) {
+        File archive = tmp.newFile(name)
+        new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(archive))).withStream { out ->
+            byte[] bytes = contents.getBytes('UTF-8')
+            TarArchiveEntry entry = new TarArchiveEntry("robovm-${VERSION}/bin/robovm")
+            entry.size = bytes.length
+            entry.mode = 0755
+            out.putArchiveEntry(entry)
+            out.write(bytes)
+            out.closeArchiveEntry()
+        }
+        return archive
+    }
+
+    private DistributionCache createCache(File dir) {
+        return new DistributionCache(dir, Logging.getLogger(getClass()))
+    }
+
+    @Test
+    public void testUnpackedArchiveIsReused() {
+        File cacheDir = tmp.newFolder('dists')
+        File archive = createDist('dist.tar.gz', 'v1')
+
+        File home = createCache(cacheDir).unpack(archive, VERSION)
+        assertEquals('v1', new File(home, 'bin/robovm').text)
+        assertTrue(new File(home, 'bin/robovm').canExecute())
+
+        // Not extracted again, so a change made in between survives
+        new File(home, 'bin/robovm').text = 'touched'
+        assertEquals(home, createCache(cacheDir).unpack(archive, VERSION))
+        assertEquals('touched', new File(home, 'bin/robovm').text)
+    }
+
+    @Test
+    public void testChangedArchiveIsUnpackedAgain() {
+        File cacheDir = tmp.newFolder('dists')
+        File archive = createDist('dist.tar.gz', 'v1')
+        File home1 = createCache(cacheDir).unpack(archive, VERSION)
+
+        // A SNAPSHOT replaced in place, with the same name
+        File changed = createDist('changed.tar.gz', 'v2')
+        archive.bytes = changed.bytes
+        archive.setLastModified(archive.lastModified() + 2000)
+        File home2 = createCache(cacheDir).unpack(archive, VERSION)
+
+        assertNotEquals(home1, home2)
+        assertEquals('v2', new File(home2, 'bin/robovm').text)
+    }
+
+    @Test
+    public void testConcurrentUnpacksShareOneDirectory() {
+        File cacheDir = tmp.newFolder('dists')
+        File archive = createDist('dist.tar.gz', 'v1')
+
+        def executor = Executors.newFixedThreadPool(4)
+        try {
+            def futures = (1..4).collect {
+                executor.submit({ createCache(cacheDir).unpack(archive, VERSION) } as Callable<File>)
+            }
+            Set<File> homes = futures.collect { it.get() } as Set
+            assertEquals(1, homes.size())
+            assertEquals('v1', new File(homes.iterator().next(), 'bin/robovm').text)
+        } finally {
+            executor.shutdown()
+        }
+        assertEquals([], cacheDir.list().findAll { it.contains('.tmp-') })
+    }
+
+    @Test
+    public void testAbandonedTemporaryDirectoriesAreRemoved() {
+        File cacheDir = tmp.newFolder('dists')
+        File abandoned = new File(cacheDir, 'abc.tmp-1234')
+        new File(abandoned, "robovm-${VERSION}").mkdirs()
+        abandoned.setLastModified(System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000)
+        File recent = new File(cacheDir, 'def.tmp-5678')
+        recent.mkdirs()
+
+        createCache(cacheDir).unpack(createDist('dist.tar.gz', 'v1'), VERSION)
+
+        assertFalse(abandoned.exists())
+        assertTrue(recent.exists())
+    }
+
+    @Test
+    public void testUnusedDistributionsAreRemoved() {
+        File cacheDir = tmp.newFolder('dists')
+        File old = createCache(cacheDir).unpack(createDist('old.tar.gz', 'v1'), VERSION).parentFile
+        new File(old, '.complete').setLastModified(System.currentTimeMillis() - 31L * 24 * 60 * 60 * 1000)
+
+        File current = createCache(cacheDir).unpack(createDist('current.tar.gz', 'v2'), VERSION).parentFile
+
+        assertFalse(old.exists())
+        assertTrue(current.exists())
+        assertEquals([], cacheDir.list().findAll { it.contains('.tmp-') })
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class GradleLoggerBridgeTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    @Test
+    public void testMessagesAreFormattedWithAndWithoutArguments() {
+        File logFile = new File(tmp.root, 'robovm.log')
+        StructuredLogSink sink = new StructuredLogSink(logFile, 'robovmInstall')
+        GradleLoggerBridge bridge = new GradleLoggerBridge(Logging.getLogger(getClass()), sink)
+        bridge.warn('100%% done')
+        bridge.warn('%d%% done', 50)
+        sink.close()
+
+        String log = logFile.text
+        assertTrue(log, log.contains('"100% done"'))
+        assertTrue(log, log.contains('"50% done"'))
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.gradle.api.logging.Logging
+import org.robovm.compiler.target.ios.ProvisioningProfile
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+/**
+ * Runs against fixture profiles in a plain properties format so that the
+ * index can be tested without the macOS tools real profiles need.
+ */
+class ProvisioningProfileIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private File profilesDir
+    private File indexFile
+    private List<String> parsedFiles = []
+
+    private ProvisioningProfileIndex.Parser parser = new ProvisioningProfileIndex.Parser() {
+        @Override
+        ProvisioningProfileIndex.Entry parse(File file) {
+            parsedFiles << file.name
+            Properties props = new Properties()
+            file.withInputStream { props.load(it) }
+            return new ProvisioningProfileIndex.Entry(props.uuid, props.name, props.appIdPrefix, props.appIdName,
+                    ProvisioningProfile.Type.valueOf(props.type), new Date(Long.parseLong(props.expires)))
+        }
+    }
+
+    @Before
+    public void setUp() {
+        profilesDir = tmp.newFolder('profiles')
+        indexFile = new File(tmp.root, 'index/profiles.properties')
+        writeProfile('a.mobileprovision', 'uuid-a', 'Development A', 'ABCDE12345', 'App A')
+        writeProfile('b.mobileprovision', 'uuid-b', 'Distribution B', 'ABCDE12345', 'App B')
+        new File(profilesDir, 'notes.txt').text = 'not a profile'
+    }
+
+    private File writeProfile(String fileName, String uuid, String name, String appIdPrefix, String appIdName,
+            String type = 'Development', long expires = System.currentTimeMillis() + 86400000L) {
+        File file = new File(profilesDir, fileName)
+        file.text = "uuid=$uuid\nname=$name\nappIdPrefix=$appIdPrefix\nappIdName=$appIdName\n" +
+                "type=$type\nexpires=$expires\n"
+        return file
+    }
+
+    private ProvisioningProfileIndex newIndex() {
+        return new ProvisioningProfileIndex(indexFile, profilesDir, parser, Logging.getLogger(getClass()))
+    }
+
+    @Test
+    public void testFindsCandidatesByUuidAndName() {
+        ProvisioningProfileIndex index = newIndex()
+
+        assertEquals([new File(profilesDir, 'a.mobileprovision')], index.findCandidates('uuid-a'))
+        assertEquals([new File(profilesDir, 'b.mobileprovision')], index.findCandidates('Distribution B'))
+        assertEquals([], index.findCandidates('unknown'))
+        assertEquals(2, index.getParsedCount())
+    }
+
+    @Test
+    public void testUnchangedProfilesAreNotParsedAgain() {
+        newIndex().findCandidates('uuid-a')
+        parsedFiles.clear()
+
+        ProvisioningProfileIndex index = newIndex()
+        assertEquals([new File(profilesDir, 'b.mobileprovision')], index.findCandidates('uuid-b'))
+        assertEquals([], parsedFiles)
+    }
+
+    @Test
+    public void testChangedAndRemovedProfilesAreUpdated() {
+        newIndex().findCandidates('uuid-a')
+        parsedFiles.clear()
+
+        File a = writeProfile('a.mobileprovision', 'uuid-a2', 'Development A', 'ABCDE12345', 'App A')
+        a.setLastModified(a.lastModified() + 2000)
+        new File(profilesDir, 'b.mobileprovision').delete()
+
+        ProvisioningProfileIndex index = newIndex()
+        assertEquals([a], index.findCandidates('uuid-a2'))
+        assertEquals([], index.findCandidates('uuid-a'))
+        assertEquals([], index.findCandidates('uuid-b'))
+        assertEquals(['a.mobileprovision'], parsedFiles)
+    }
+
+    @Test
+    public void testCandidatesAreFilteredAndOrderedLikeList() {
+        writeProfile('c.mobileprovision', 'uuid-c', 'Shared', 'ABCDE12345', 'App C', 'AdHoc')
+        writeProfile('d.mobileprovision', 'uuid-d', 'Shared', 'ABCDE12345', 'App D', 'Development')
+        writeProfile('e.mobileprovision', 'uuid-e', 'Shared', 'ABCDE12345', 'App E', 'Development',
+                System.currentTimeMillis() - 1000)
+
+        ProvisioningProfileIndex index = newIndex()
+        assertEquals([new File(profilesDir, 'd.mobileprovision'), new File(profilesDir, 'c.mobileprovision')],
+                index.findCandidates('Shared'))
+    }
+}
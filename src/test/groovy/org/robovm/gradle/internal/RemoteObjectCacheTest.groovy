@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.gradle.api.logging.Logging
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.robovm.compiler.config.Arch
+import org.robovm.compiler.config.OS
+
+import java.util.concurrent.ConcurrentHashMap
+
+import static org.junit.Assert.*
+
+class RemoteObjectCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    HttpServer server
+    String url
+    Map<String, byte[]> stored = new ConcurrentHashMap<>()
+    List<String> requests = Collections.synchronizedList([])
+
+    @Before
+    public void startServer() {
+        server = HttpServer.create(new InetSocketAddress('127.0.0.1', 0), 0)
+        server.createContext('/', new HttpHandler() {
+            @Override
+            void handle(HttpExchange exchange) {
+                String path = exchange.requestURI.path
+                requests << exchange.requestMethod + ' ' + path
+                if (exchange.requestMethod == 'PUT') {
+                    stored[path] = exchange.requestBody.bytes
+                    exchange.sendResponseHeaders(201, -1)
+                } else if (stored.containsKey(path)) {
+                    exchange.sendResponseHeaders(200, stored[path].length)
+                    exchange.responseBody.write(stored[path])
+                } else {
+                    exchange.sendResponseHeaders(404, -1)
+                }
+                exchange.close()
+            }
+        })
+        server.start()
+        url = "http://127.0.0.1:${server.address.port}/objects/"
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0)
+    }
+
+    private static void createEntry(File cacheDir, String path) {
+        File dir = new File(cacheDir, path)
+        new File(dir, 'com/example').mkdirs()
+        new File(dir, 'com/example/Foo.class.o').text = 'object'
+        new File(dir, 'com/example/Foo.class.info').text = 'info'
+    }
+
+    private static String key(Arch arch = Arch.arm64, List<String> settings = ['enableBitcode=null'],
+            String classpathHash = 'cp', String jarHash = 'abc') {
+        return RemoteObjectCache.key('1.8.0', OS.ios, arch, false, settings, classpathHash, jarHash)
+    }
+
+    @Test
+    public void testKeyDependsOnArchSettingsClasspathAndContents() {
+        assertEquals(key(), key())
+        assertNotEquals(key(), key(Arch.thumbv7))
+        assertNotEquals(key(), key(Arch.arm64, ['enableBitcode=true']))
+        assertNotEquals(key(), key(Arch.arm64, ['enableBitcode=null'], 'other-cp'))
+        assertNotEquals(key(), key(Arch.arm64, ['enableBitcode=null'], 'cp', 'def'))
+    }
+
+    @Test
+    public void testEntryUploadedByOneAgentIsDownloadedByAnother() {
+        String path = 'ios/arm64/release/agent1/libs/foo.jar'
+        String key = key()
+
+        File cacheDir1 = tmp.newFolder('agent1')
+        createEntry(cacheDir1, path)
+        RemoteObjectCache agent1 = new RemoteObjectCache(cacheDir1, url, true, Logging.getLogger(getClass()))
+        agent1.uploadAsync([(path): key])
+        agent1.awaitUploads()
+        assertTrue(requests.contains('PUT /objects/' + key + '.zip'))
+
+        File cacheDir2 = tmp.newFolder('agent2')
+        String path2 = 'ios/arm64/release/agent2/libs/foo.jar'
+        RemoteObjectCache agent2 = new RemoteObjectCache(cacheDir2, url, false, Logging.getLogger(getClass()))
+        long jarsLastModified = 1400000000000L
+        assertEquals([] as Set, agent2.prefetch([(path2): key], jarsLastModified))
+        File restored = new File(cacheDir2, path2 + '/com/example/Foo.class.o')
+        assertEquals('object', restored.text)
+        assertEquals(jarsLastModified, restored.lastModified())
+    }
+
+    @Test
+    public void testMissingEntriesAreReportedAndExistingOnesNotRequested() {
+        File cacheDir = tmp.newFolder('cache')
+        createEntry(cacheDir, 'ios/arm64/release/libs/present.jar')
+        RemoteObjectCache cache = new RemoteObjectCache(cacheDir, url, false, Logging.getLogger(getClass()))
+
+        Set<String> misses = cache.prefetch([
+                'ios/arm64/release/libs/present.jar': 'key1',
+                'ios/arm64/release/libs/absent.jar': 'key2'], 0L)
+        assertEquals(['ios/arm64/release/libs/absent.jar'] as Set, misses)
+        assertEquals(['GET /objects/key2.zip'], requests)
+        assertFalse(new File(cacheDir, 'ios/arm64/release/libs/absent.jar').exists())
+    }
+
+    @Test
+    public void testNothingIsUploadedWithoutPush() {
+        File cacheDir = tmp.newFolder('cache')
+        createEntry(cacheDir, 'ios/arm64/release/libs/foo.jar')
+        RemoteObjectCache cache = new RemoteObjectCache(cacheDir, url, false, Logging.getLogger(getClass()))
+        cache.uploadAsync(['ios/arm64/release/libs/foo.jar': 'key'])
+        cache.awaitUploads()
+        assertTrue(requests.isEmpty())
+    }
+}
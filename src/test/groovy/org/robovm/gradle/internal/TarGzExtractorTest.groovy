@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.gradle.internal
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.archivers.tar.TarConstants
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.nio.file.Files
+import java.util.zip.GZIPOutputStream
+
+import static org.junit.Assert.*
+
+class TarGzExtractorTest {
+
+    // Larger than TarGzExtractor.MAX_HANDOFF_SIZE so it's copied on the reading thread
+    static final int LARGE_SIZE = 9 * 1024 * 1024 + 17
+
+    static final long MTIME = 1420070400000L
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder()
+
+    private static byte[] data(int size, int seed) {
+        byte[] bytes = new byte[size]
+        new Random(seed).nextBytes(bytes)
+        return bytes
+    }
+
+    private static void addFile(TarArchiveOutputStream out, String name, byte[] bytes, int mode) {
+        TarArchiveEntry entry = new TarArchiveEntry(name)
+        entry.size = bytes.length
+        entry.mode = mode
+        entry.modTime = new Date(MTIME)
+        out.putArchiveEntry(entry)
+        out.write(bytes)
+        out.closeArchiveEntry()
+    }
+
+    private static void addDir(TarArchiveOutputStream out, String name) {
+        TarArchiveEntry entry = new TarArchiveEntry(name)
+        entry.modTime = new Date(MTIME)
+        out.putArchiveEntry(entry)
+        out.closeArchiveEntry()
+    }
+
+    private static void addSymlink(TarArchiveOutputStream out, String name, String target) {
+        TarArchiveEntry entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK)
+        entry.linkName = target
+        out.putArchiveEntry(entry)
+        out.closeArchiveEntry()
+    }
+
+    private File createArchive(Closure entries) {
+        File archive = tmp.newFile('archive.tar.gz')
+        new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(archive))).withStream { out ->
+            out.longFileMode = TarArchiveOutputStream.LONGFILE_GNU
+            out.bigNumberMode = TarArchiveOutputStream.BIGNUMBER_POSIX
+            entries(out)
+        }
+        return archive
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] small = data(1000, 1)
+        byte[] large = data(LARGE_SIZE, 2)
+        byte[] tool = data(5000, 3)
+        File archive = createArchive { TarArchiveOutputStream out ->
+            addDir(out, 'robovm/')
+            addDir(out, 'robovm/lib/')
+            addFile(out, 'robovm/lib/small.jar', small, 0644)
+            addFile(out, 'robovm/lib/large.jar', large, 0644)
+            addFile(out, 'robovm/lib/empty.txt', new byte[0], 0644)
+            addDir(out, 'robovm/bin/')
+            addFile(out, 'robovm/bin/robovm', tool, 0755)
+            addFile(out, 'robovm/bin/large-tool', large, 0755)
+            addSymlink(out, 'robovm/bin/robovm-link', 'robovm')
+            addSymlink(out, 'robovm/latest', 'lib')
+        }
+
+        File dest = tmp.newFolder('dest')
+        new TarGzExtractor(2).extract(archive, dest)
+
+        File home = new File(dest, 'robovm')
+        assertArrayEquals(small, new File(home, 'lib/small.jar').bytes)
+        assertArrayEquals(large, new File(home, 'lib/large.jar').bytes)
+        assertEquals(0, new File(home, 'lib/empty.txt').length())
+        assertArrayEquals(tool, new File(home, 'bin/robovm').bytes)
+        assertArrayEquals(large, new File(home, 'bin/large-tool').bytes)
+
+        assertTrue(new File(home, 'bin/robovm').canExecute())
+        assertTrue(new File(home, 'bin/large-tool').canExecute())
+        assertFalse(new File(home, 'lib/small.jar').canExecute())
+        assertFalse(new File(home, 'lib/large.jar').canExecute())
+
+        File link = new File(home, 'bin/robovm-link')
+        assertTrue(Files.isSymbolicLink(link.toPath()))
+        assertEquals('robovm', Files.readSymbolicLink(link.toPath()).toString())
+        assertArrayEquals(tool, link.bytes)
+        File dirLink = new File(home, 'latest')
+        assertTrue(Files.isSymbolicLink(dirLink.toPath()))
+        assertArrayEquals(small, new File(dirLink, 'small.jar').bytes)
+
+        assertEquals(MTIME, new File(home, 'lib/small.jar').lastModified())
+        assertEquals(MTIME, new File(home, 'lib/large.jar').lastModified())
+        assertEquals(MTIME, new File(home, 'lib').lastModified())
+    }
+
+    @Test
+    public void testExtractingAgainReplacesFilesAndLinks() {
+        File archive = createArchive { TarArchiveOutputStream out ->
+            addFile(out, 'robovm/lib/a.jar', data(100, 1), 0644)
+            addSymlink(out, 'robovm/lib/b.jar', 'a.jar')
+        }
+        File dest = tmp.newFolder('dest')
+        new File(dest, 'robovm/lib').mkdirs()
+        new File(dest, 'robovm/lib/a.jar').bytes = data(100000, 9)
+
+        new TarGzExtractor(1).extract(archive, dest)
+        new TarGzExtractor(1).extract(archive, dest)
+
+        assertArrayEquals(data(100, 1), new File(dest, 'robovm/lib/a.jar').bytes)
+        assertArrayEquals(data(100, 1), new File(dest, 'robovm/lib/b.jar').bytes)
+    }
+
+    @Test(expected = IOException)
+    public void testTruncatedArchiveFails() {
+        File archive = createArchive { TarArchiveOutputStream out ->
+            addFile(out, 'robovm/lib/large.jar', data(LARGE_SIZE, 2), 0644)
+        }
+        byte[] bytes = archive.bytes
+        archive.bytes = Arrays.copyOf(bytes, bytes.length / 2 as int)
+
+        new TarGzExtractor(1).extract(archive, tmp.newFolder('dest'))
+    }
+
+    @Test
+    public void testEntriesOutsideOfTheDestinationAreRejected() {
+        File dest = tmp.newFolder('dest')
+        [
+            { addFile(it, '../escaped.txt', data(10, 1), 0644) },
+            { addSymlink(it, 'robovm/up', '../..') },
+            { addSymlink(it, 'robovm/abs', tmp.root.absolutePath) },
+            // Each link stays inside on its own, but following both leaves
+            {
+                addSymlink(it, 'self', '.')
+                addSymlink(it, 'e/x', '../self/..')
+                addFile(it, 'e/x/escaped.txt', data(10, 1), 0644)
+            },
+        ].eachWithIndex { Closure entries, int i ->
+            File archive = createArchive(entries)
+            try {
+                new TarGzExtractor(1).extract(archive, dest)
+                fail('Archive ' + i + ' extracted')
+            } catch (IOException e) {
+                // Expected
+            }
+            archive.delete()
+        }
+        assertFalse(new File(tmp.root, 'escaped.txt').exists())
+        assertFalse(new File(dest, 'robovm/up').exists())
+        assertFalse(Files.isSymbolicLink(new File(dest, 'robovm/abs').toPath()))
+    }
+}